@@ -0,0 +1,425 @@
+//**********************************************************************
+// cresendo - BenchHarness
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.Vector;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import com.ibm.logging.MessageLogger;
+import com.ibm.logging.TraceLogger;
+import com.tivoli.tec.event_delivery.TECEvent;
+
+// The cresendo classes live in the default package, which the code JMH
+// generates for the benchmarks (package cresendo.bench) can't import, so
+// the benchmarks reach them through this class.  Everything handed back
+// is a JDK functional interface.
+//
+// setUp() points cresendo at a scratch directory, starts the message and
+// trace loggers (with tracing off) and has every EventSend connection
+// write to a stub which counts events instead of to a TECAgent, so no
+// network is needed.
+//
+// The events of a batch are converted once and replayed on every call.
+// Handlers which change an event set the same value every time (the
+// EventRegex replacement leaves the text as it was) so each call does
+// the same work.
+//
+public class BenchHarness
+{
+  // Handlers which can be benchmarked on their own
+  //
+  public static final String[] HANDLERS = {
+                                            "SetAttr",
+                                            "SetAttrTemplate",
+                                            "DeriveAndSetAttr",
+                                            "Regex",
+                                            "RegexSet",
+                                            "DropByHostName",
+                                            "MapSevByHostName",
+                                            "MapSevBySitName",
+                                            "MapSevByHostAndSitName",
+                                            "Send",
+                                            "SendAsync"
+                                          };
+
+  // Representative chains of handlers
+  //
+  public static final String[] CHAINS = {
+                                          "send",      // EventSend only
+                                          "filter",    // Drop and severity maps in front of EventSend
+                                          "enrich",    // Attributes set, derived and regex'd in front of EventSend
+                                          "full"       // All of the above
+                                        };
+
+  private static final String[] situation = {
+                                              "Linux_Process_High_CPU",
+                                              "Linux_Swap_Space_Low",
+                                              "UNIX_Filesystem_Full",
+                                              "NT_Disk_Space_Low",
+                                              "NT_Service_Down",
+                                              "ITM_Heartbeat"
+                                            };
+
+  private static final String[] severity = {
+                                             "WARNING",
+                                             "CRITICAL",
+                                             "MINOR",
+                                             "HARMLESS"
+                                           };
+
+  private static final int HOSTS = 16;        // Distinct host names in the generated events
+  private static final String CONFIG = "bench.conf";
+  private static final String TEMPLATES = "bench.templates";
+
+  // The EventRegex rule followed by rules which match none of the events
+  //
+  private static final String REGEX_RULES = "s/Process (\\w+) on/Process $1 on/\n" +
+                                            "s/percent memory/% memory/\n" +
+                                            "s/^Disk (\\w+) full/Disk $1 is full/\n" +
+                                            "s|/var/tmp|/tmp|\n" +
+                                            "s/\\s+$//\n";
+
+  private static final LongAdder sent = new LongAdder();   // Events written to the stub sender
+
+  // Every EventSend writes here instead of to a TECAgent
+  //
+  private static final IEventSender stub = new IEventSender()
+  {
+    public int sendEvent(String event)
+    {
+      sent.increment();
+      return event.length();
+    }
+  };
+  private static boolean ready = false;
+  private static File varDir = null;          // Base directory of the drop and map handlers
+  private static MessageLogger eifMsg = null;
+  private static TraceLogger eifTrc = null;
+
+  public static synchronized void setUp() throws Exception
+  {
+    if (ready)
+    {
+      return;
+    }
+
+    File base = Files.createTempDirectory("cresendo-bench").toFile();
+    File etcDir = new File(base, "etc");
+    File logDir = new File(base, "log");
+
+    varDir = new File(base, "var");
+
+    etcDir.mkdir();
+    logDir.mkdir();
+    varDir.mkdir();
+
+    Cresendo.instanceName = "bench";
+    Cresendo.dirSep = File.separator;
+    Cresendo.configDir = etcDir.getPath();
+    Cresendo.logDir = logDir.getPath();
+
+    // EventSend only checks that its config file can be read
+    //
+    FileWriter fw = new FileWriter(new File(etcDir, CONFIG));
+    fw.write("ServerLocation=localhost\nServerPort=5529\n");
+    fw.close();
+
+    // The attributes set by SetAttr and DeriveAndSetAttr plus a message
+    // made up of two others
+    //
+    fw = new FileWriter(new File(etcDir, TEMPLATES));
+    fw.write("cresendo_instance = bench\n");
+    fw.write("host_situation = \"${hostname}: ${situation_name}\"\n");
+    fw.close();
+
+    Cresendo.msgLogger = new EngineLogger("message", new File(logDir, "bench.log").getPath(), 1024);
+    Cresendo.msgLogger.start();
+
+    Cresendo.trcLogger = new EngineLogger("trace", new File(logDir, "bench.trace").getPath(), 65536);
+    Cresendo.trcLogger.setOverflow(EngineLogger.DROP);
+    Cresendo.trcLogger.setLogging(false);
+    Cresendo.trcLogger.start();
+
+    eifMsg = new MessageLogger("cresendo", "message log");
+    eifTrc = new TraceLogger("cresendo", "trace log");
+    eifTrc.setLogging(false);
+
+    // One in sixteen hosts is dropped and about a third of the events
+    // have their severity mapped
+    //
+    touch("DropByHostName", "serv13");
+    touch("MapSevByHostName/critical", "serv02");
+    touch("MapSevBySitName/fatal", "NT_Service_Down");
+    touch("MapSevByHostAndSitName/minor/serv05", "UNIX_Filesystem_Full");
+
+    ready = true;
+  }
+
+  private static void touch(String dir, String name) throws Exception
+  {
+    File d = new File(varDir, dir);
+
+    d.mkdirs();
+    new File(d, name).createNewFile();
+  }
+
+  // An EIF message holding n ITM style events from HOSTS hosts
+  //
+  public static String message(int n)
+  {
+    StringBuilder sb = new StringBuilder(n * 400);
+
+    for (int i = 0; i < n; i++)
+    {
+      String host = String.format("serv%02d", i % HOSTS);
+      String sit = situation[i % situation.length];
+
+      sb.append("ITM_").append(sit)
+        .append(";source='ITM';sub_source='").append(host).append(":LZ'")
+        .append(";hostname='").append((i % 3 == 0) ? host.toUpperCase() : host).append(".example.com'")
+        .append(";origin='10.1.0.").append(i % HOSTS).append("'")
+        .append(";situation_name='").append(sit).append("'")
+        .append(";situation_origin='").append(host).append(":LZ'")
+        .append(";situation_time='10/18/2026 12:00:").append(String.format("%02d", i % 60)).append(".000'")
+        .append(";situation_status='Y'")
+        .append(";severity=").append(severity[i % severity.length])
+        .append(";msg='Process java on ").append(host).append(" using ").append(50 + i % 50)
+        .append(" percent CPU'")
+        .append(";END\n");
+    }
+
+    return sb.toString();
+  }
+
+  static TECEvent[] events(int n)
+  {
+    return TECEvent.convert(message(n), eifMsg, eifTrc);
+  }
+
+  static IEventHandler handler(String name) throws Exception
+  {
+    String d = varDir.getPath();
+
+    if (name.equals("SetAttr"))                return new EventSetAttr("cresendo_instance", "'bench'");
+    if (name.equals("SetAttrTemplate"))        return new EventSetAttrTemplate(TEMPLATES);
+    if (name.equals("DeriveAndSetAttr"))       return new EventDeriveAndSetAttr("hostname", "\\.", 0, "short_host", 2);
+    if (name.equals("Regex"))                  return new EventRegex("Process (\\w+) on", "Process $1 on", "msg");
+    if (name.equals("RegexSet"))               return new EventRegexSet(REGEX_RULES, "msg");
+    if (name.equals("DropByHostName"))         return new EventDropByHostName(d);
+    if (name.equals("MapSevByHostName"))       return new EventMapSevByHostName(d);
+    if (name.equals("MapSevBySitName"))        return new EventMapSevBySitName(d);
+    if (name.equals("MapSevByHostAndSitName")) return new EventMapSevByHostAndSitName(d);
+    if (name.equals("Send"))                   return new EventSend(CONFIG, stub);
+    if (name.equals("SendAsync"))              return new EventSend(CONFIG, 2, 1024, stub);
+
+    throw new IllegalArgumentException("Unknown handler: " + name);
+  }
+
+  static Vector<IEventHandler> handlers(String chain) throws Exception
+  {
+    String[] names = null;
+
+    if (chain.equals("send"))
+    {
+      names = new String[] { "Send" };
+    }
+    else if (chain.equals("filter"))
+    {
+      names = new String[] { "DropByHostName", "MapSevByHostName", "MapSevBySitName",
+                             "MapSevByHostAndSitName", "Send" };
+    }
+    else if (chain.equals("enrich"))
+    {
+      names = new String[] { "SetAttr", "DeriveAndSetAttr", "Regex", "Send" };
+    }
+    else if (chain.equals("full"))
+    {
+      names = new String[] { "DropByHostName", "SetAttr", "DeriveAndSetAttr", "Regex", "MapSevByHostName",
+                             "MapSevBySitName", "MapSevByHostAndSitName", "Send" };
+    }
+    else
+    {
+      throw new IllegalArgumentException("Unknown chain: " + chain);
+    }
+
+    Vector<IEventHandler> v = new Vector<IEventHandler>();
+
+    for (int i = 0; i < names.length; i++)
+    {
+      v.addElement(handler(names[i]));
+    }
+
+    return v;
+  }
+
+  // EventEngine.onMessage with the given chain, single threaded (threads
+  // 0) or with that many worker threads and the default ring buffer.
+  // With workers the receiver waits when the buffers are full so the
+  // rate at which messages are accepted is the rate they are processed.
+  //
+  public static Predicate<String> engine(String chain, int threads) throws Exception
+  {
+    setUp();
+
+    EventHandlerChain c = new EventHandlerChain(handlers(chain));
+    final EventEngine ee = (threads == 0) ? new EventEngine(c, eifMsg, eifTrc)
+                                          : new EventEngine(c, eifMsg, eifTrc, threads, "hostname", 0,
+                                                            EventRingBuffer.BLOCK);
+
+    return new Predicate<String>()
+    {
+      public boolean test(String events)
+      {
+        return ee.onMessage(events);
+      }
+    };
+  }
+
+  // A batch of n events passed along the given chain of handlers.
+  // Returns the number of events which reach the end of the chain.
+  //
+  public static IntSupplier chain(String chain, int n) throws Exception
+  {
+    setUp();
+
+    return replay(new EventHandlerChain(handlers(chain)), n);
+  }
+
+  // The same, passing one event at a time along the EventHandlerChain
+  //
+  public static IntSupplier chainPerEvent(String chain, int n) throws Exception
+  {
+    setUp();
+
+    final EventHandlerChain c = new EventHandlerChain(handlers(chain));
+    final TECEvent[] template = events(n);
+    final TECEvent[] one = new TECEvent[1];
+
+    return new IntSupplier()
+    {
+      public int getAsInt()
+      {
+        int left = 0;
+
+        for (int i = 0; i < template.length; i++)
+        {
+          one[0] = template[i];
+          EventEngine.begin(one, null, received(), 1);
+          left += c.process(one, 1);
+        }
+
+        return left;
+      }
+    };
+  }
+
+  // The same again along a Vector of handlers with an Enumeration, the
+  // way the engine did before EventHandlerChain
+  //
+  public static IntSupplier vector(String chain, int n) throws Exception
+  {
+    setUp();
+
+    final Vector<IEventHandler> v = handlers(chain);
+    final TECEvent[] template = events(n);
+
+    return new IntSupplier()
+    {
+      public int getAsInt()
+      {
+        int left = 0;
+
+        for (int i = 0; i < template.length; i++)
+        {
+          boolean keep = true;
+          Enumeration<IEventHandler> en = v.elements();
+
+          while (keep && en.hasMoreElements())
+          {
+            keep = en.nextElement().processEvent(template[i]);
+          }
+
+          if (keep)
+          {
+            left++;
+          }
+        }
+
+        return left;
+      }
+    };
+  }
+
+  // A batch of n events passed to one handler on its own
+  //
+  public static IntSupplier handler(String name, int n) throws Exception
+  {
+    setUp();
+
+    Vector<IEventHandler> v = new Vector<IEventHandler>();
+    v.addElement(handler(name));
+
+    return replay(new EventHandlerChain(v), n);
+  }
+
+  private static IntSupplier replay(final EventHandlerChain c, int n)
+  {
+    final TECEvent[] template = events(n);
+    final TECEvent[] batch = new TECEvent[template.length];
+
+    return new IntSupplier()
+    {
+      public int getAsInt()
+      {
+        System.arraycopy(template, 0, batch, 0, template.length);
+        EventEngine.begin(batch, null, received(), template.length);
+        return c.process(batch, template.length);
+      }
+    };
+  }
+
+  // The batch is taken to have just arrived, as the engine does in
+  // onMessage
+  //
+  private static long received()
+  {
+    return EventContext.stamping ? System.nanoTime() : 0;
+  }
+
+  // Events written to the stub sender so far
+  //
+  public static LongSupplier sent()
+  {
+    return new LongSupplier()
+    {
+      public long getAsLong()
+      {
+        return sent.sum();
+      }
+    };
+  }
+}
@@ -0,0 +1,48 @@
+//**********************************************************************
+// cresendo - Allocation
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+package cresendo.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmarks with the gc profiler attached, which adds the
+// bytes allocated per operation (gc.alloc.rate.norm) to the results.
+// Takes the same arguments as the JMH runner, eg
+//
+//   java -cp target/benchmarks.jar cresendo.bench.Allocation HandlerBench
+//
+public class Allocation
+{
+  public static void main(String[] args) throws Exception
+  {
+    Options opt = new OptionsBuilder()
+      .parent(new CommandLineOptions(args))
+      .addProfiler(GCProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,222 @@
+//**********************************************************************
+// cresendo - AllocationGate
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+
+package cresendo.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.IntSupplier;
+
+// Fails the build when the steady state event path starts allocating more
+// than it used to.  Each built in handler and each chain is run on this
+// thread with a full batch until it is warm, then the bytes allocated by
+// the thread per event are compared with the baseline file, eg
+//
+//   java -cp target/benchmarks.jar cresendo.bench.AllocationGate allocation-baseline.properties
+//
+// An entry missing from the baseline fails the gate.  Running with
+// -Dcresendo.alloc.record=true records every entry again instead, eg
+// after an intended change or against a different eif library.  The
+// untraced directory lookup handlers must allocate nothing at all
+// whatever the baseline says.  SendAsync is left out as its senders
+// allocate on their own threads.
+//
+public class AllocationGate
+{
+  private static final int EVENTS = 64;           // Events per batch (a full engine worker batch)
+  private static final int WARMUP = 20000;        // Batches run before measuring
+  private static final int BATCHES = 2000;        // Batches measured
+  private static final double RATIO = 1.10;       // Allowed growth over the baseline
+  private static final long SLACK = 16;           // Allowed growth in bytes per event on top of that
+
+  private static final String[] ZERO =            // Entries held to 0 bytes per event
+  {
+    "handler.DropByHostName",
+    "handler.MapSevByHostName",
+    "handler.MapSevBySitName",
+    "handler.MapSevByHostAndSitName"
+  };
+
+  private static com.sun.management.ThreadMXBean threads =
+    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  public static void main(String[] args) throws Exception
+  {
+    File file = new File(args.length > 0 ? args[0] : "allocation-baseline.properties");
+    boolean record = Boolean.getBoolean("cresendo.alloc.record");
+    Properties baseline = new Properties();
+    TreeMap<String, Long> measured = new TreeMap<String, Long>();
+
+    if (file.canRead())
+    {
+      FileInputStream in = new FileInputStream(file);
+      try
+      {
+        baseline.load(in);
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+
+    String[] handlers = Harness.get("HANDLERS");
+    String[] chains = Harness.get("CHAINS");
+
+    for (int i = 0; i < handlers.length; i++)
+    {
+      if (! handlers[i].equals("SendAsync"))
+      {
+        measured.put("handler." + handlers[i], perEvent((IntSupplier) Harness.call("handler", handlers[i], EVENTS)));
+      }
+    }
+
+    for (int i = 0; i < chains.length; i++)
+    {
+      measured.put("chain." + chains[i], perEvent((IntSupplier) Harness.call("chain", chains[i], EVENTS)));
+    }
+
+    int failed = 0;
+
+    for (int i = 0; i < ZERO.length; i++)
+    {
+      Long bytes = measured.get(ZERO[i]);
+
+      if (bytes != null && bytes.longValue() > 0)
+      {
+        failed++;
+        System.out.println("  " + ZERO[i] + ": " + bytes + " bytes/event REGRESSION (limit 0)");
+      }
+    }
+
+    for (String name : measured.keySet())
+    {
+      long bytes = measured.get(name).longValue();
+      String base = baseline.getProperty(name);
+
+      if (record)
+      {
+        baseline.setProperty(name, Long.toString(bytes));
+        System.out.println("  " + name + ": " + bytes + " bytes/event (recorded)");
+        continue;
+      }
+
+      if (base == null)
+      {
+        failed++;
+        System.out.println("  " + name + ": " + bytes + " bytes/event, NO BASELINE" +
+                           " (record it with -Dcresendo.alloc.record=true)");
+        continue;
+      }
+
+      long limit = (long) (Long.parseLong(base.trim()) * RATIO) + SLACK;
+
+      if (bytes > limit)
+      {
+        failed++;
+        System.out.println("  " + name + ": " + bytes + " bytes/event, baseline " + base.trim() +
+                           " REGRESSION (limit " + limit + ")");
+      }
+      else
+      {
+        System.out.println("  " + name + ": " + bytes + " bytes/event, baseline " + base.trim());
+      }
+    }
+
+    if (record)
+    {
+      store(baseline, file);
+    }
+
+    if (failed > 0)
+    {
+      System.err.println("AllocationGate: " + failed + " allocation regression(s) against " + file.getPath());
+      System.exit(1);
+    }
+  }
+
+  // Write the baseline out sorted by name so that a new recording shows
+  // up as a readable diff
+  //
+  private static void store(Properties baseline, File file) throws Exception
+  {
+    TreeMap<String, String> sorted = new TreeMap<String, String>();
+
+    for (String name : baseline.stringPropertyNames())
+    {
+      sorted.put(name, baseline.getProperty(name));
+    }
+
+    PrintWriter out = new PrintWriter(file, "ISO-8859-1");
+    try
+    {
+      out.println("# Bytes allocated per event on the steady state path (see AllocationGate)");
+      out.println("#");
+      out.println("# Checked by mvn verify.  Record them again with");
+      out.println("# mvn verify -Dcresendo.alloc.record=true after an intended change.");
+      out.println("#");
+
+      for (String name : sorted.keySet())
+      {
+        out.println(name + "=" + sorted.get(name));
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  // Bytes allocated by this thread per event once the batch is warm
+  //
+  private static long perEvent(IntSupplier batch)
+  {
+    long id = Thread.currentThread().getId();
+    int sink = 0;
+
+    for (int i = 0; i < WARMUP; i++)
+    {
+      sink += batch.getAsInt();
+    }
+
+    long before = threads.getThreadAllocatedBytes(id);
+
+    for (int i = 0; i < BATCHES; i++)
+    {
+      sink += batch.getAsInt();
+    }
+
+    long bytes = threads.getThreadAllocatedBytes(id) - before;
+
+    if (sink < 0)
+    {
+      System.out.println(sink);      // Keep the work from being optimised away
+    }
+
+    return bytes / ((long) BATCHES * EVENTS);
+  }
+}
@@ -0,0 +1,89 @@
+//**********************************************************************
+// cresendo - ChainBench
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+package cresendo.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Representative chains of handlers.  handlerChain and vectorEnumeration
+// both pass the events one at a time, through EventHandlerChain and along
+// a Vector with an Enumeration as the engine used to, so they differ only
+// in how the chain is walked.  handlerChainBatch passes all of the events
+// through EventHandlerChain together, as the engine workers do, to show
+// what batching adds on top.  Scores are per call (events events).
+//
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainBench
+{
+  @Param({ "send", "filter", "enrich", "full" })
+  public String chain;            // Chain of handlers (see BenchHarness.CHAINS)
+
+  @Param({ "1", "64" })
+  public int events;              // Events per batch
+
+  private IntSupplier chained = null;
+  private IntSupplier batched = null;
+  private IntSupplier vector = null;
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    chained = Harness.call("chainPerEvent", chain, events);
+    batched = Harness.call("chain", chain, events);
+    vector = Harness.call("vector", chain, events);
+  }
+
+  @Benchmark
+  public int handlerChain()
+  {
+    return chained.getAsInt();
+  }
+
+  @Benchmark
+  public int handlerChainBatch()
+  {
+    return batched.getAsInt();
+  }
+
+  @Benchmark
+  public int vectorEnumeration()
+  {
+    return vector.getAsInt();
+  }
+}
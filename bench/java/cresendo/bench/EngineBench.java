@@ -0,0 +1,75 @@
+//**********************************************************************
+// cresendo - EngineBench
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+package cresendo.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// EventEngine.onMessage from EIF text to the stub sender: conversion of
+// the message into TECEvents and the handler chain.  Scores are per
+// message, ie per events events.
+//
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBench
+{
+  @Param({ "1", "10", "50" })
+  public int events;              // Events per EIF message
+
+  @Param({ "send", "filter", "enrich", "full" })
+  public String chain;            // Chain of handlers (see BenchHarness.CHAINS)
+
+  @Param({ "0", "4" })
+  public int threads;             // Engine worker threads (0 processes on the receiving thread)
+
+  private Predicate<String> engine = null;
+  private String message = null;
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    engine = Harness.call("engine", chain, threads);
+    message = Harness.call("message", events);
+  }
+
+  @Benchmark
+  public boolean onMessage()
+  {
+    return engine.test(message);
+  }
+}
@@ -0,0 +1,70 @@
+//**********************************************************************
+// cresendo - HandlerBench
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+package cresendo.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Each built in handler on its own, given a batch of already converted
+// events.  Scores are per batch.
+//
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlerBench
+{
+  @Param({ "SetAttr", "SetAttrTemplate", "DeriveAndSetAttr", "Regex", "RegexSet", "DropByHostName",
+           "MapSevByHostName", "MapSevBySitName", "MapSevByHostAndSitName", "Send", "SendAsync" })
+  public String handler;          // Handler (see BenchHarness.HANDLERS)
+
+  @Param({ "1", "64" })
+  public int events;              // Events per batch (64 is a full engine worker batch)
+
+  private IntSupplier batch = null;
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    batch = Harness.call("handler", handler, events);
+  }
+
+  @Benchmark
+  public int processBatch()
+  {
+    return batch.getAsInt();
+  }
+}
@@ -0,0 +1,70 @@
+//**********************************************************************
+// cresendo - Harness
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+package cresendo.bench;
+
+import java.lang.reflect.Method;
+
+// Calls the public static methods of BenchHarness, which is in the default
+// package along with the rest of cresendo and so can't be named here
+//
+final class Harness
+{
+  private static Class<?> harness = null;
+
+  private Harness()
+  {
+  }
+
+  private static Class<?> harness() throws Exception
+  {
+    if (harness == null)
+    {
+      harness = Class.forName("BenchHarness");
+    }
+    return harness;
+  }
+
+  // Value of a public static field, eg HANDLERS
+  //
+  @SuppressWarnings("unchecked")
+  static synchronized <T> T get(String name) throws Exception
+  {
+    return (T) harness().getField(name).get(null);
+  }
+
+  @SuppressWarnings("unchecked")
+  static synchronized <T> T call(String name, Object... args) throws Exception
+  {
+    Method[] m = harness().getMethods();
+
+    for (int i = 0; i < m.length; i++)
+    {
+      if (m[i].getName().equals(name) && m[i].getParameterTypes().length == args.length)
+      {
+        return (T) m[i].invoke(null, args);
+      }
+    }
+
+    throw new NoSuchMethodException("BenchHarness." + name);
+  }
+}
@@ -61,11 +61,18 @@ public class Cresendo
   public static String logPath = null;            // Path to message file log
   public static String tracePath = null;          // Path to trace file log
   public static String statusPath = null;         // Path to status file log
-  public static FileHandler msgHandler = null;    // Message file handler object
-  public static FileHandler trcHandler = null;    // Trace file handler object
-  public static MessageLogger msgLogger = null;   // Message logging object
-  public static TraceLogger trcLogger = null;     // Trace logging object
+  public static String eifLogPath = null;         // Path to message log of the eif library (TECEvent)
+  public static String eifTracePath = null;       // Path to trace log of the eif library (TECEvent)
+  public static FileHandler msgHandler = null;    // Message file handler object (eif library)
+  public static FileHandler trcHandler = null;    // Trace file handler object (eif library)
+  public static MessageLogger eifMsgLogger = null;   // Message logging object passed to the eif library
+  public static TraceLogger eifTrcLogger = null;     // Trace logging object passed to the eif library
+  public static EngineLogger msgLogger = null;    // Message logging object
+  public static EngineLogger trcLogger = null;    // Trace logging object
   public static StatusLogger statLogger = null;   // Status logging object
+
+  private static final int MESSAGE_QUEUE = 1024;  // Message records waiting to be written (at most)
+  private static final int TRACE_QUEUE = 65536;   // Trace records waiting to be written (at most)
   
   private static void checkConfigFile(String cfgFile)
   {
@@ -84,6 +91,231 @@ public class Cresendo
     }
   }
 
+  // Load the engine xml file, validating it against its dtd.  This will
+  // throw a ConfigurationException if the xml document does not conform to
+  // its dtd.  By doing this we hopefully catch any errors left behind after
+  // the xml configuration file has been edited.
+  //
+  static XMLConfiguration loadEngine(String cfgFileEngine) throws ConfigurationException
+  {
+    XMLConfiguration xmlProcessor = new XMLConfiguration();
+    xmlProcessor.setFileName(cfgFileEngine);
+
+    // Validate the xml against a document type declaration
+    //
+    xmlProcessor.setValidating(true);
+
+    // Don't interpolate the tag contents by splitting them on a delimiter
+    // (ie by default a comma)
+    //
+    xmlProcessor.setDelimiterParsingDisabled(true); 
+
+    xmlProcessor.load();
+
+    return xmlProcessor;
+  }
+
+  // Instantiate the event handler classes listed in the engine xml file,
+  // in the order they are listed, and add them to eventHandler.  The
+  // classes and their options are appended to the message record.  Also
+  // used by EventBench so that it loads an instance's handlers exactly
+  // as the instance does.
+  //
+  static void loadHandlers(XMLConfiguration xmlProcessor, Vector<IEventHandler> eventHandler, LogRecord msg)
+  {
+    loadHandlers(xmlProcessor, eventHandler, msg, null);
+  }
+
+  // As above, but when sendTo isn't null every EventSend writes to it
+  // instead of connecting to its destination (see EventBench)
+  //
+  static void loadHandlers(XMLConfiguration xmlProcessor, Vector<IEventHandler> eventHandler, LogRecord msg,
+                           IEventSender sendTo)
+  {
+    List classes = xmlProcessor.configurationsAt("class");
+
+    for(Iterator it = classes.iterator(); it.hasNext();)
+    {
+      HierarchicalConfiguration sub = (HierarchicalConfiguration) it.next();
+
+      // sub contains now all data contained in a single <class></class> tag set
+      //
+      String className = sub.getString("name");
+
+      // Log message
+      //
+      msg.setText(msg.getText() + "\n  Instantiated event handler class: '" + className + "'");
+
+      // The angle brackets describing the class of object held by the
+      // Vector are implemented by Java 1.5 and have 2 effects.
+      //
+      // 1. The list accepts only elements of that class and nothing else
+      // (Of course thanks to Auto-Wrap you can also add double-values)
+      //
+      // 2. the get(), firstElement() ... Methods don't return a Object, but
+      //    they deliver an element of the class.
+      //
+      Vector<Class> optTypes  = new Vector<Class>(10, 10);
+      Vector<Object> optValues = new Vector<Object>(10, 10);
+
+      for (int i = 0; i <= sub.getMaxIndex("option"); i++)
+      {
+        Object optValue = null;
+        String optVarName = sub.getString("option(" + i + ")[@varname]");
+        String optJavaType = sub.getString("option(" + i + ")[@javatype]");
+
+        // Use the specified java type in order to make the method call
+        // to the heirarchical sub object [painful :-((]
+        //
+        if (optJavaType.matches("byte"))
+        {
+          optTypes.addElement(byte.class);
+          optValue = sub.getByte("option(" + i + ")");
+
+          if (optValue == null)  // Catch nulls
+          {
+            optValue = 0;  // Set to something nullish
+          }
+        }
+        else if ( optJavaType.matches("short"))
+        {
+          optTypes.addElement(byte.class);
+          optValue = sub.getShort("option(" + i + ")");
+
+          if (optValue == null)  // Catch nulls
+          {
+            optValue = 0;  // Set to something nullish
+          }
+        }
+        else if ( optJavaType.matches("int"))
+        {
+          optTypes.addElement(int.class);
+          optValue = sub.getInt("option(" + i + ")");
+
+          if (optValue == null)  // Catch nulls
+          {
+            optValue = 0;  // Set to something nullish
+          }
+        }
+        else if ( optJavaType.matches("long"))
+        {
+          optTypes.addElement(long.class);
+          optValue = sub.getLong("option(" + i + ")");
+
+          if (optValue == null)  // Catch nulls
+          {
+            optValue = 0;  // Set to something nullish
+          }
+        }
+        else if ( optJavaType.matches("float"))
+        {
+          optTypes.addElement(float.class);
+          optValue = sub.getFloat("option(" + i + ")");
+
+          if (optValue == null)  // Catch nulls
+          {
+            optValue = 0.0;  // Set to something nullish
+          }
+        }
+        else if ( optJavaType.matches("double"))
+        {
+          optTypes.addElement(double.class);
+          optValue = sub.getDouble("option(" + i + ")");
+
+          if (optValue == null)  // Catch nulls
+          {
+            optValue = 0.0;  // Set to something nullish
+          }
+        }
+        else if ( optJavaType.matches("boolean"))
+        {
+          optTypes.addElement(boolean.class);
+          optValue = sub.getBoolean("option(" + i + ")");
+
+          if (optValue == null)  // Catch nulls
+          {
+            optValue = false;  // Set to something nullish
+          }
+        }
+        else if ( optJavaType.matches("String"))
+        {
+          optTypes.addElement(String.class);
+          optValue = sub.getString("option(" + i + ")");
+
+          if (optValue == null)  // Catch nulls
+          {
+            optValue = "";  // Set it to something nullish
+          }
+        }
+        else
+        {
+          System.err.println("Error: Unsupported java type found in xml config: '" + optJavaType + "'");
+          System.exit(1);
+        }
+
+        // Add option value element
+        //
+        //              System.out.println("Option value is: '" + optValue.toString() + "'\n");
+        //
+        optValues.addElement(optValue);
+
+        // Append to message text
+        //
+        String msgTemp = msg.getText();
+        msgTemp += "\n      option name: '" + optVarName + "'";
+        msgTemp += "\n      option type: '" + optJavaType + "'";
+        msgTemp += "\n     option value: '" + optValues.lastElement().toString() + "'";
+        msg.setText(msgTemp);
+      }
+
+      try
+      {
+        // Instantiate the class with the java reflection api
+        //
+        Class klass = Class.forName(className);
+
+        // Setup an array of paramater types in order to retrieve the matching constructor
+        //
+        if (sendTo != null && klass == EventSend.class)
+        {
+          optTypes.addElement(IEventSender.class);
+          optValues.addElement(sendTo);
+        }
+
+        Class[] types = optTypes.toArray(new Class[optTypes.size()]);  
+
+        // Get the constructor for the class which matches the parameter types
+        //
+        Constructor konstruct = (sendTo != null && klass == EventSend.class) ?
+                                klass.getDeclaredConstructor(types) : klass.getConstructor(types);
+
+        // Create an instance of the event handler
+        //
+        IEventHandler eventProcessor = (IEventHandler) konstruct.newInstance(optValues.toArray());
+
+        // Add the instance to the list of event handlers
+        //
+        eventHandler.addElement(eventProcessor);
+          
+      }
+      catch (InvocationTargetException e)
+      {
+        System.err.println("Error: " + e.toString());
+        System.exit(1);
+      }
+      catch (ClassNotFoundException e)
+      {
+        System.err.println("Error: class name not found: '" + className + "' \n" + e.toString());
+        System.exit(1);
+      }
+      catch (Exception e)
+      {
+        System.err.println("Error: failed to instantiate class: '" + className + "' \n" + e.toString());
+        System.exit(1);
+      }
+    }
+  }
+
   public static void main(String[] args)
   {
     String cfgFileReceiver = null;     // Path to config file for eif receiver agent
@@ -96,7 +328,7 @@ public class Cresendo
     // The message logger object is created when the "-l" is processed
     // as this object need to be associated with a log file
     //
-    LogRecord msg = new LogRecord(LogRecord.TYPE_INFO, "Cresendo", "main", "", "", "", "", "");
+    LogRecord msg = new EngineLogRecord(LogRecord.TYPE_INFO, "Cresendo", "main");
 
     // Get the directory separator (defaults to "/")
     //
@@ -106,6 +338,45 @@ public class Cresendo
     //
     Vector<IEventHandler> eventHandler = new Vector<IEventHandler>(10,10);
 
+    // Number of engine worker threads (0 means process events on the
+    // receiver thread) and the attribute used to spread events over them
+    //
+    int engineThreads = 0;
+    String partitionSlot = "hostname";
+
+    // Size of the ring buffer between the receiver and the engine threads
+    // (0 means no buffer unless threads are configured) and what to do when
+    // it is full
+    //
+    int bufferSize = 0;
+    int overflowPolicy = EventRingBuffer.BLOCK;
+
+    // Whether the time spent in each event handler is recorded
+    //
+    boolean timeHandlers = false;
+
+    // Attribute set on each event to the time it was received (null means
+    // events are not stamped)
+    //
+    String stampSlot = null;
+
+    // Port and address of the http metrics listener (0 means no listener)
+    //
+    int metricsPort = 0;
+    String metricsAddress = "127.0.0.1";
+
+    // Size (in megabytes, 0 means never) at which the message and trace
+    // logs are rotated, how many rotated files are kept and whether they
+    // are compressed
+    //
+    int logSize = 0;
+    int logFiles = 5;
+    boolean logCompress = false;
+
+    // Which events to trace when only some of them are (null means all)
+    //
+    TraceSampler sampler = null;
+
     // Process the command line arguments
     //
     try
@@ -150,6 +421,8 @@ public class Cresendo
         logPath = logDir + dirSep + instanceName + "-engine.log" ;
         tracePath = logDir + dirSep + instanceName + "-engine.trace" ;
         statusPath = logDir + dirSep + instanceName + "-engine.status" ;
+        eifLogPath = logDir + dirSep + instanceName + "-eif.log" ;
+        eifTracePath = logDir + dirSep + instanceName + "-eif.trace" ;
       }
       else
       {
@@ -219,17 +492,30 @@ public class Cresendo
       //
       try
       {
-        msgHandler = new FileHandler("cresendo", "message handler", logPath);
+        // The engine logs are written by a thread of their own so that the
+        // event handlers never wait for the disk
+        //
+        msgLogger = new EngineLogger("message", logPath, MESSAGE_QUEUE);
+        msgLogger.start();
+
+        trcLogger = new EngineLogger("trace", tracePath, TRACE_QUEUE);
+        trcLogger.setLogging(false);
+        trcLogger.setOverflow(EngineLogger.DROP);
+        trcLogger.start();
+
+        // The eif library (TECEvent.convert) still wants loggers of its own
+        //
+        msgHandler = new FileHandler("cresendo", "message handler", eifLogPath);
         msgHandler.openDevice();
 
-        msgLogger = new MessageLogger("cresendo", "message log");
-        msgLogger.addHandler(msgHandler);
+        eifMsgLogger = new MessageLogger("cresendo", "message log");
+        eifMsgLogger.addHandler(msgHandler);
 
-        trcHandler = new FileHandler("cresendo", "trace handler", tracePath);
+        trcHandler = new FileHandler("cresendo", "trace handler", eifTracePath);
         trcHandler.openDevice();
 
-        trcLogger = new TraceLogger("cresendo", "trace log");
-        trcLogger.addHandler(trcHandler);
+        eifTrcLogger = new TraceLogger("cresendo", "trace log");
+        eifTrcLogger.addHandler(trcHandler);
 
         statLogger = new StatusLogger(statusPath);
       }
@@ -241,7 +527,8 @@ public class Cresendo
 
       // Add the shutdown hook
       //
-      Runtime.getRuntime().addShutdownHook(new ShutdownThread(msgLogger, instanceName));
+      ShutdownThread shutdownHook = new ShutdownThread(msgLogger, trcLogger, instanceName);
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
 
       // ---------------------------------------------------------------------
       // =====================================================================
@@ -252,23 +539,7 @@ public class Cresendo
 
       try
       {
-        XMLConfiguration xmlProcessor = new XMLConfiguration();
-        xmlProcessor.setFileName(cfgFileEngine);
-
-        // Validate the xml against a document type declaration
-        //
-        xmlProcessor.setValidating(true);
-
-        // Don't interpolate the tag contents by splitting them on a delimiter
-        // (ie by default a comma)
-        //
-        xmlProcessor.setDelimiterParsingDisabled(true); 
-
-        // This will throw a ConfigurationException if the xml document does not
-        // conform to its dtd.  By doing this we hopefully catch any errors left
-        // behind after the xml configuration file has been edited.
-        //
-        xmlProcessor.load();
+        XMLConfiguration xmlProcessor = loadEngine(cfgFileEngine);
 
         // Setup the trace flag
         //
@@ -295,6 +566,7 @@ public class Cresendo
             if (attrValue.matches("true") || attrValue.matches("on"))
             {
               trcLogger.setLogging(true);
+              eifTrcLogger.setLogging(true);
             }
           }
 
@@ -322,186 +594,192 @@ public class Cresendo
 
             statLogger.setInterval(Integer.parseInt(attrValue));
           }
-        }
 
-        // Now build and instantiate the list of classes that will process events
-        // received by the TECAgent receiver in a chain like manner.
-        //
-        List classes = xmlProcessor.configurationsAt("class");
-
-        for(Iterator it = classes.iterator(); it.hasNext();)
-        {
-          HierarchicalConfiguration sub = (HierarchicalConfiguration) it.next();
-
-          // sub contains now all data contained in a single <class></class> tag set
-          //
-          String className = sub.getString("name");
-
-          // Log message
-          //
-          msg.setText(msg.getText() + "\n  Instantiated event handler class: '" + className + "'");
-
-          // The angle brackets describing the class of object held by the
-          // Vector are implemented by Java 1.5 and have 2 effects.
-          //
-          // 1. The list accepts only elements of that class and nothing else
-          // (Of course thanks to Auto-Wrap you can also add double-values)
-          //
-          // 2. the get(), firstElement() ... Methods don't return a Object, but
-          //    they deliver an element of the class.
-          //
-          Vector<Class> optTypes  = new Vector<Class>(10, 10);
-          Vector<Object> optValues = new Vector<Object>(10, 10);
-
-          for (int i = 0; i <= sub.getMaxIndex("option"); i++)
+          if (attrName.matches("latency"))
           {
-            Object optValue = null;
-            String optVarName = sub.getString("option(" + i + ")[@varname]");
-            String optJavaType = sub.getString("option(" + i + ")[@javatype]");
-
-            // Use the specified java type in order to make the method call
-            // to the heirarchical sub object [painful :-((]
-            //
-            if (optJavaType.matches("byte"))
+            if (attrValue.matches("true") || attrValue.matches("on"))
             {
-              optTypes.addElement(byte.class);
-              optValue = sub.getByte("option(" + i + ")");
-
-              if (optValue == null)  // Catch nulls
-              {
-                optValue = 0;  // Set to something nullish
-              }
+              timeHandlers = true;
+              EventContext.stamping = true;    // Before the handlers are loaded (see EventSend)
             }
-            else if ( optJavaType.matches("short"))
-            {
-              optTypes.addElement(byte.class);
-              optValue = sub.getShort("option(" + i + ")");
+          }
 
-              if (optValue == null)  // Catch nulls
-              {
-                optValue = 0;  // Set to something nullish
-              }
-            }
-            else if ( optJavaType.matches("int"))
+          if (attrName.matches("stampslot"))
+          {
+            if (! attrValue.matches("[A-Za-z_][A-Za-z0-9_]*"))
             {
-              optTypes.addElement(int.class);
-              optValue = sub.getInt("option(" + i + ")");
-
-              if (optValue == null)  // Catch nulls
-              {
-                optValue = 0;  // Set to something nullish
-              }
+              System.err.println("\n  Error: The value of the stampslot attribute in: '" + cfgFileEngine + "'" +
+                                 "\n         should be the name of an event attribute." +
+                                 "\n         It currently contains: '" + attrValue + "'");
+              System.exit(1);
             }
-            else if ( optJavaType.matches("long"))
-            {
-              optTypes.addElement(long.class);
-              optValue = sub.getLong("option(" + i + ")");
 
-              if (optValue == null)  // Catch nulls
-              {
-                optValue = 0;  // Set to something nullish
-              }
-            }
-            else if ( optJavaType.matches("float"))
-            {
-              optTypes.addElement(float.class);
-              optValue = sub.getFloat("option(" + i + ")");
+            stampSlot = attrValue;
+          }
 
-              if (optValue == null)  // Catch nulls
-              {
-                optValue = 0.0;  // Set to something nullish
-              }
-            }
-            else if ( optJavaType.matches("double"))
+          if (attrName.matches("metricsport"))
+          {
+            if (! attrValue.matches("[0-9]+"))
             {
-              optTypes.addElement(double.class);
-              optValue = sub.getDouble("option(" + i + ")");
-
-              if (optValue == null)  // Catch nulls
-              {
-                optValue = 0.0;  // Set to something nullish
-              }
+              System.err.println("\n  Error: The value of the metricsport attribute in: '" + cfgFileEngine + "'" +
+                                 "\n         should only contain digits from 0 to 9." +
+                                 "\n         It currently contains: '" + attrValue + "'");
+              System.exit(1);
             }
-            else if ( optJavaType.matches("boolean"))
+
+            metricsPort = Integer.parseInt(attrValue);
+          }
+
+          if (attrName.matches("metricsaddress"))
+          {
+            metricsAddress = attrValue;
+          }
+
+          if (attrName.matches("tracesample"))
+          {
+            if (! attrValue.matches("[0-9]+"))
             {
-              optTypes.addElement(boolean.class);
-              optValue = sub.getBoolean("option(" + i + ")");
+              System.err.println("\n  Error: The value of the tracesample attribute in: '" + cfgFileEngine + "'" +
+                                 "\n         should only contain digits from 0 to 9." +
+                                 "\n         It currently contains: '" + attrValue + "'");
+              System.exit(1);
+            }
+
+            sampler = (sampler == null) ? new TraceSampler() : sampler;
+            sampler.setEvery(Integer.parseInt(attrValue));
+          }
+
+          if (attrName.matches("tracehosts"))
+          {
+            sampler = (sampler == null) ? new TraceSampler() : sampler;
+            sampler.setHosts(attrValue);
+          }
 
-              if (optValue == null)  // Catch nulls
-              {
-                optValue = false;  // Set to something nullish
-              }
+          if (attrName.matches("tracesituations"))
+          {
+            sampler = (sampler == null) ? new TraceSampler() : sampler;
+            sampler.setSituations(attrValue);
+          }
+
+          if (attrName.matches("traceseverity"))
+          {
+            sampler = (sampler == null) ? new TraceSampler() : sampler;
+
+            if (! sampler.setSeverity(attrValue))
+            {
+              System.err.println("\n  Error: The value of the traceseverity attribute in: '" + cfgFileEngine + "'" +
+                                 "\n         should be one of 'FATAL', 'CRITICAL', 'MINOR', 'WARNING', 'HARMLESS' or 'UNKNOWN'." +
+                                 "\n         It currently contains: '" + attrValue + "'");
+              System.exit(1);
             }
-            else if ( optJavaType.matches("String"))
+          }
+
+          if (attrName.matches("traceoverflow"))
+          {
+            int policy = EngineLogger.policy(attrValue);
+
+            if (policy < 0)
             {
-              optTypes.addElement(String.class);
-              optValue = sub.getString("option(" + i + ")");
+              System.err.println("\n  Error: The value of the traceoverflow attribute in: '" + cfgFileEngine + "'" +
+                                 "\n         should be one of 'block' or 'drop'." +
+                                 "\n         It currently contains: '" + attrValue + "'");
+              System.exit(1);
+            }
+
+            trcLogger.setOverflow(policy);
+          }
 
-              if (optValue == null)  // Catch nulls
-              {
-                optValue = "";  // Set it to something nullish
-              }
+          if (attrName.matches("logsize"))
+          {
+            if (! attrValue.matches("[0-9]+"))
+            {
+              System.err.println("\n  Error: The value of the logsize attribute in: '" + cfgFileEngine + "'" +
+                                 "\n         should only contain digits from 0 to 9." +
+                                 "\n         It currently contains: '" + attrValue + "'");
+              System.exit(1);
             }
-            else
+
+            logSize = Integer.parseInt(attrValue);
+          }
+
+          if (attrName.matches("logfiles"))
+          {
+            if (! attrValue.matches("[0-9]+"))
             {
-              System.err.println("Error: Unsupported java type found in xml config: '" + optJavaType + "'");
+              System.err.println("\n  Error: The value of the logfiles attribute in: '" + cfgFileEngine + "'" +
+                                 "\n         should only contain digits from 0 to 9." +
+                                 "\n         It currently contains: '" + attrValue + "'");
               System.exit(1);
             }
 
-            // Add option value element
-            //
-            //              System.out.println("Option value is: '" + optValue.toString() + "'\n");
-            //
-            optValues.addElement(optValue);
-
-            // Append to message text
-            //
-            String msgTemp = msg.getText();
-            msgTemp += "\n      option name: '" + optVarName + "'";
-            msgTemp += "\n      option type: '" + optJavaType + "'";
-            msgTemp += "\n     option value: '" + optValues.lastElement().toString() + "'";
-            msg.setText(msgTemp);
+            logFiles = Integer.parseInt(attrValue);
           }
 
-          try
+          if (attrName.matches("logcompress"))
           {
-            // Instantiate the class with the java reflection api
-            //
-            Class klass = Class.forName(className);
-
-            // Setup an array of paramater types in order to retrieve the matching constructor
-            //
-            Class[] types = optTypes.toArray(new Class[optTypes.size()]);  
-
-            // Get the constructor for the class which matches the parameter types
-            //
-            Constructor konstruct = klass.getConstructor(types);
-
-            // Create an instance of the event handler
-            //
-            IEventHandler eventProcessor = (IEventHandler) konstruct.newInstance(optValues.toArray());
-
-            // Add the instance to the list of event handlers
-            //
-            eventHandler.addElement(eventProcessor);
-              
+            logCompress = attrValue.matches("true") || attrValue.matches("on");
           }
-          catch (InvocationTargetException e)
+
+          if (attrName.matches("threads"))
           {
-            System.err.println("Error: " + e.toString());
-            System.exit(1);
+            if (! attrValue.matches("[0-9]+"))
+            {
+              System.err.println("\n  Error: The value of the threads attribute in: '" + cfgFileEngine + "'" +
+                                 "\n         should only contain digits from 0 to 9." +
+                                 "\n         It currently contains: '" + attrValue + "'");
+              System.exit(1);
+            }
+
+            engineThreads = Integer.parseInt(attrValue);
           }
-          catch (ClassNotFoundException e)
+
+          if (attrName.matches("partition"))
           {
-            System.err.println("Error: class name not found: '" + className + "' \n" + e.toString());
-            System.exit(1);
+            partitionSlot = attrValue;
           }
-          catch (Exception e)
+
+          if (attrName.matches("buffer"))
+          {
+            if (! attrValue.matches("[0-9]+"))
+            {
+              System.err.println("\n  Error: The value of the buffer attribute in: '" + cfgFileEngine + "'" +
+                                 "\n         should only contain digits from 0 to 9." +
+                                 "\n         It currently contains: '" + attrValue + "'");
+              System.exit(1);
+            }
+
+            bufferSize = Integer.parseInt(attrValue);
+          }
+
+          if (attrName.matches("overflow"))
           {
-            System.err.println("Error: failed to instantiate class: '" + className + "' \n" + e.toString());
-            System.exit(1);
+            overflowPolicy = EventRingBuffer.policy(attrValue);
+
+            if (overflowPolicy < 0)
+            {
+              System.err.println("\n  Error: The value of the overflow attribute in: '" + cfgFileEngine + "'" +
+                                 "\n         should be one of 'block', 'drop-oldest', 'drop-lowest-severity' or 'spill'." +
+                                 "\n         It currently contains: '" + attrValue + "'");
+              System.exit(1);
+            }
           }
         }
+
+        // Selective tracing turns the trace log on for the chosen events
+        //
+        if (sampler != null)
+        {
+          TraceSampler.active = sampler;
+          trcLogger.setLogging(true);
+        }
+
+        msgLogger.setRotation(logSize * 1024L * 1024L, logFiles, logCompress);
+        trcLogger.setRotation(logSize * 1024L * 1024L, logFiles, logCompress);
+
+        // Now build and instantiate the list of classes that will process events
+        // received by the TECAgent receiver in a chain like manner.
+        //
+        loadHandlers(xmlProcessor, eventHandler, msg);
       }
       catch(ConfigurationException cex)    // Something went wrong loading the xml file
       {
@@ -534,15 +812,60 @@ public class Cresendo
       //
       TECAgent receiver = new TECAgent(cfgIn, TECAgent.RECEIVER_MODE, false);
 
-      EventEngine ee = new EventEngine(eventHandler, msgLogger, trcLogger);
+      // Freeze the chain of event handlers now that it is complete
+      //
+      EventHandlerChain chain = new EventHandlerChain(eventHandler, timeHandlers);
+
+      EventEngine ee = new EventEngine(chain, eifMsgLogger, eifTrcLogger,
+                                       engineThreads, partitionSlot, bufferSize, overflowPolicy);
+
+      if (stampSlot != null)
+      {
+        ee.setStampSlot(stampSlot);
+      }
 
       receiver.registerListener(ee); 
 
+      // Let the shutdown hook drain the engine before the logs are closed
+      //
+      shutdownHook.setEngine(ee);
+
+      // Publish live engine, handler and sender statistics over JMX
+      //
+      Management.registerEngine(ee);
+
+      // and, when asked for, over http
+      //
+      if (metricsPort > 0)
+      {
+        try
+        {
+          new MetricsHttpServer(metricsAddress, metricsPort).start();
+        }
+        catch (IOException e)
+        {
+          System.err.println("\n  Error: Unable to listen for metrics requests on '" + metricsAddress + ":" + metricsPort + "'" +
+                             "\n         " + e.toString());
+          System.exit(1);
+        }
+      }
+
       // Construct message and send it to the message log
       //
       String text = "\n  Cresendo instance '" + instanceName +
         "' listening for events on port '" + receiver.getConfigVal("ServerPort") + "'";
 
+      if (metricsPort > 0)
+      {
+        text += "\n  Serving metrics on 'http://" + metricsAddress + ":" + metricsPort + "/metrics'";
+      }
+
+      if (engineThreads > 0 || bufferSize > 0)
+      {
+        text += "\n  Engine running '" + Math.max(engineThreads, 1) + "' worker threads partitioned by attribute '" +
+          partitionSlot + "'";
+      }
+
       msg.setText(msg.getText() + text); 
       msgLogger.log(msg);                  // Send message to log
 
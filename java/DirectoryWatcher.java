@@ -0,0 +1,244 @@
+//**********************************************************************
+// cresendo - DirectoryWatcher
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+// Watches a directory tree (eg var/DropByHostName) and tells its owners to
+// reload whenever files are created or removed anywhere below it.
+//
+// Filesystem notifications are not delivered everywhere (eg NFS), so the
+// owners are also told to reload after every rescan interval without any
+// notifications.  If no watch service is available at all the rescan is
+// all that is left.
+//
+// There is one watcher thread per directory however many handlers watch
+// it, so building the chain again doesn't start more threads.  Owners are
+// only held weakly and the thread ends once they have all gone.
+//
+class DirectoryWatcher extends Thread
+{
+  static final long SETTLE = 100;           // Quiet time which ends a burst of changes (milliseconds)
+  static final long MAX_DELAY = 1000;       // Longest a reload waits for a burst to end (milliseconds)
+
+  private static HashMap<String, DirectoryWatcher> watching = new HashMap<String, DirectoryWatcher>();   // By canonical path
+
+  private File root = null;                 // Top of the directory tree
+  private String path = null;               // Its canonical path
+  private Vector<WeakReference<IReloadable>> owners = new Vector<WeakReference<IReloadable>>();   // Who to tell when it changes
+  private volatile long rescan = 60000;     // Full rescan interval (milliseconds)
+  private WatchService ws = null;           // Null if notifications are unavailable
+
+  // Tell owner whenever the directory tree below dir changes, or at least
+  // every rescanMillis.  A directory already being watched keeps its
+  // thread and takes the shorter of the rescan intervals.
+  //
+  static synchronized void watch(File dir, IReloadable owner, long rescanMillis)
+  {
+    String path = null;
+
+    try
+    {
+      path = dir.getCanonicalPath();
+    }
+    catch (IOException e)
+    {
+      path = dir.getAbsolutePath();
+    }
+
+    DirectoryWatcher w = watching.get(path);
+
+    if (w == null)
+    {
+      w = new DirectoryWatcher(dir, path, rescanMillis);
+      watching.put(path, w);
+      w.start();
+    }
+
+    w.owners.add(new WeakReference<IReloadable>(owner));
+    w.rescan = Math.min(w.rescan, rescanMillis);
+  }
+
+  private DirectoryWatcher(File r, String p, long rescanMillis)
+  {
+    super("DirectoryWatcher-" + r.getName());
+    root = r;
+    path = p;
+    rescan = rescanMillis;
+    setDaemon(true);      // Don't hold up the jvm at shutdown
+
+    try
+    {
+      ws = FileSystems.getDefault().newWatchService();
+      register(root);
+    }
+    catch (IOException e)
+    {
+      System.err.println("Cresendo: DirectoryWatcher: falling back to rescanning '" + root.getPath() +
+                         "' every '" + (rescan / 1000) + "' seconds: " + e.toString());
+      ws = null;
+    }
+  }
+
+  // Watch a directory and all of the directories below it
+  //
+  private void register(File dir) throws IOException
+  {
+    dir.toPath().register(ws, ENTRY_CREATE, ENTRY_DELETE, OVERFLOW);
+
+    File[] sub = dir.listFiles();
+
+    for (int i = 0; sub != null && i < sub.length; i++)
+    {
+      if (sub[i].isDirectory())
+      {
+        register(sub[i]);
+      }
+    }
+  }
+
+  // The owners still in use, or null (and the watcher is forgotten) once
+  // there are none left
+  //
+  private Vector<IReloadable> owners()
+  {
+    synchronized (DirectoryWatcher.class)
+    {
+      Vector<IReloadable> live = new Vector<IReloadable>();
+
+      for (int i = owners.size() - 1; i >= 0; i--)
+      {
+        IReloadable o = owners.elementAt(i).get();
+
+        if (o == null)
+        {
+          owners.removeElementAt(i);
+        }
+        else
+        {
+          live.add(0, o);
+        }
+      }
+
+      if (live.isEmpty())
+      {
+        watching.remove(path);
+        return null;
+      }
+
+      return live;
+    }
+  }
+
+  public void run()
+  {
+    while (true)
+    {
+      try
+      {
+        if (ws == null)
+        {
+          Thread.sleep(rescan);
+        }
+        else
+        {
+          WatchKey key = ws.poll(rescan, TimeUnit.MILLISECONDS);
+
+          // Operators tend to touch or remove several files at once so
+          // collect everything that arrives in quick succession and
+          // reload just once, but never more than MAX_DELAY after the
+          // first change so that a steady trickle can't hold it off
+          //
+          long deadline = System.currentTimeMillis() + MAX_DELAY;
+
+          while (key != null)
+          {
+            Path dir = (Path) key.watchable();
+
+            for (WatchEvent<?> we : key.pollEvents())
+            {
+              if (we.kind() == ENTRY_CREATE)
+              {
+                File f = dir.resolve((Path) we.context()).toFile();
+
+                if (f.isDirectory())
+                {
+                  register(f);   // eg a new host directory below a severity directory
+                }
+              }
+            }
+
+            key.reset();
+
+            long left = deadline - System.currentTimeMillis();
+
+            key = (left > 0) ? ws.poll(Math.min(SETTLE, left), TimeUnit.MILLISECONDS) : null;
+          }
+        }
+
+        Vector<IReloadable> live = owners();
+
+        if (live == null)
+        {
+          break;       // Every owner has been discarded
+        }
+
+        for (int i = 0; i < live.size(); i++)
+        {
+          live.elementAt(i).reload();
+        }
+      }
+      catch (InterruptedException ie)
+      {
+        break;
+      }
+      catch (Exception e)
+      {
+        System.err.println("Cresendo: DirectoryWatcher: '" + root.getPath() + "': " + e.toString());
+      }
+    }
+
+    try
+    {
+      if (ws != null)
+      {
+        ws.close();
+      }
+    }
+    catch (IOException e)
+    {
+      // Nothing more to be done
+    }
+  }
+}
@@ -0,0 +1,41 @@
+//**********************************************************************
+// cresendo - EngineLogRecord
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import com.ibm.logging.LogRecord;
+
+// A LogRecord which remembers its type, class and method names so that
+// EngineLogger can write it out on its own thread
+//
+class EngineLogRecord extends LogRecord
+{
+  final long type;              // Record type (ie LogRecord.TYPE_WARN)
+  final String className;       // Name of the class logging the record
+  final String methodName;      // Name of the method logging the record
+
+  EngineLogRecord(long t, String c, String m)
+  {
+    super(t, c, m, "", "", "", "", "");
+    type = t;
+    className = c;
+    methodName = m;
+  }
+}
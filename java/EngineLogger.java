@@ -0,0 +1,429 @@
+//**********************************************************************
+// cresendo - EngineLogger
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+import com.ibm.logging.LogRecord;
+
+// Writes the engine message or trace log on a thread of its own.
+//
+// log() only copies the text of the record into a bounded queue, so an
+// event handler never waits on the disk.  The writer thread takes
+// whatever has built up in the queue, writes it in one go and flushes.
+// When the queue is full the record is either waited for (BLOCK) or
+// thrown away and counted (DROP).  Once the file grows past the rotation
+// size it is renamed to <file>.1 (the older ones moving up to <file>.n)
+// and, optionally, compressed to <file>.1.gz.
+//
+// A failed write doesn't stop the writer, which would leave BLOCK
+// loggers waiting on a full queue for ever.  The file is closed, the
+// records which couldn't be written are counted as failed and the file
+// is opened again for the next batch.  While it can't be opened the
+// records are thrown away and counted the same way.
+//
+// The isLogging field and the setLogging/log methods have the same names
+// as those of com.ibm.logging.Logger which the event handlers used
+// before, so the handlers didn't have to change.
+//
+class EngineLogger extends Thread
+{
+  static final int BLOCK = 0;    // Wait for room in the queue
+  static final int DROP = 1;     // Throw the record away and count it
+
+  private static final int BATCH = 512;              // Records written between flushes (at most)
+
+  public volatile boolean isLogging = true;          // To log or not to log
+  private String path = null;                         // Log file
+  private ArrayBlockingQueue<Entry> queue = null;     // Records waiting to be written
+  private volatile int overflow = BLOCK;              // What to do when the queue is full
+  private volatile long rotateBytes = 0;              // Rotate once the file is this big (0 means never)
+  private volatile int rotateFiles = 5;               // Number of rotated files kept
+  private volatile boolean compress = false;          // Compress rotated files
+  private LongAdder dropped = null;                   // Records thrown away because the queue was full
+  private LongAdder failed = null;                    // Records lost because the file couldn't be written
+  private volatile boolean closed = false;
+
+  private Writer out = null;
+  private long written = 0;                           // Bytes in the current file
+
+  // One record, copied when it was logged
+  //
+  private static final class Entry
+  {
+    final long time;
+    final String type;
+    final String className;
+    final String methodName;
+    final String text;
+
+    Entry(long ti, String ty, String c, String m, String te)
+    {
+      time = ti;
+      type = ty;
+      className = c;
+      methodName = m;
+      text = te;
+    }
+  }
+
+  private static final Entry STOP = new Entry(0, "", "", "", "");   // Ends the writer thread
+
+  EngineLogger(String name, String p, int queueSize)
+  {
+    super("EngineLogger-" + name);
+    path = p;
+    queue = new ArrayBlockingQueue<Entry>(queueSize);
+    dropped = MetricsRegistry.counter("EngineLogger." + name + ".dropped");
+    failed = MetricsRegistry.counter("EngineLogger." + name + ".failed");
+    setDaemon(true);      // Don't hold up the jvm at shutdown (see close)
+  }
+
+  public void setLogging(boolean l)
+  {
+    isLogging = l;
+  }
+
+  void setOverflow(int o)
+  {
+    overflow = o;
+  }
+
+  void setRotation(long bytes, int files, boolean gzip)
+  {
+    rotateBytes = bytes;
+    rotateFiles = Math.max(files, 1);
+    compress = gzip;
+  }
+
+  // Returns the overflow policy named by an engine xml attribute value or
+  // -1 if the name is not known
+  //
+  static int policy(String name)
+  {
+    if (name.equals("block"))
+    {
+      return BLOCK;
+    }
+
+    if (name.equals("drop"))
+    {
+      return DROP;
+    }
+
+    return -1;
+  }
+
+  public void log(LogRecord r)
+  {
+    if (! isLogging || closed)
+    {
+      return;
+    }
+
+    if (r instanceof EngineLogRecord)
+    {
+      EngineLogRecord er = (EngineLogRecord) r;
+      enqueue(new Entry(System.currentTimeMillis(), typeName(er.type), er.className, er.methodName, r.getText()));
+    }
+    else
+    {
+      enqueue(new Entry(System.currentTimeMillis(), "INFO", "", "", r.getText()));
+    }
+  }
+
+  // Log text built up elsewhere (see TraceBuffer)
+  //
+  void log(long type, String className, String methodName, CharSequence text)
+  {
+    if (! isLogging || closed)
+    {
+      return;
+    }
+
+    enqueue(new Entry(System.currentTimeMillis(), typeName(type), className, methodName, text.toString()));
+  }
+
+  private void enqueue(Entry e)
+  {
+    if (overflow == DROP)
+    {
+      if (! queue.offer(e))
+      {
+        dropped.increment();
+      }
+      return;
+    }
+
+    try
+    {
+      queue.put(e);
+    }
+    catch (InterruptedException ie)
+    {
+      dropped.increment();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static String typeName(long type)
+  {
+    if (type == LogRecord.TYPE_INFO)
+    {
+      return "INFO";
+    }
+    if (type == LogRecord.TYPE_WARN)
+    {
+      return "WARN";
+    }
+    if (type == LogRecord.TYPE_ERROR)
+    {
+      return "ERROR";
+    }
+    if (type == LogRecord.TYPE_ENTRY)
+    {
+      return "ENTRY";
+    }
+    return "TRACE";
+  }
+
+  // Write out whatever is queued and stop the writer.  Called from the
+  // shutdown hook.
+  //
+  void close()
+  {
+    closed = true;
+
+    try
+    {
+      // The writer may be stuck or gone, so don't wait for room for ever
+      //
+      if (queue.offer(STOP, 5, TimeUnit.SECONDS))
+      {
+        join(5000);
+      }
+    }
+    catch (InterruptedException ie)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public void run()
+  {
+    Vector<Entry> batch = new Vector<Entry>(BATCH);
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss.SSS");
+    Date date = new Date();
+    StringBuilder sb = new StringBuilder(1024);
+    boolean broken = false;                  // Has the last write or open failed
+
+    while (true)
+    {
+      Entry first = null;
+
+      try
+      {
+        first = queue.poll(1, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException ie)
+      {
+        closeQuietly();
+        return;
+      }
+
+      if (first == null)
+      {
+        continue;
+      }
+
+      batch.clear();
+      batch.addElement(first);
+      queue.drainTo(batch, BATCH - 1);
+
+      boolean stop = batch.contains(STOP);
+      int done = 0;                          // Records of the batch written
+
+      try
+      {
+        if (out == null)
+        {
+          open();
+        }
+
+        for (int i = 0; i < batch.size(); i++)
+        {
+          Entry e = batch.elementAt(i);
+
+          if (e != STOP)
+          {
+            date.setTime(e.time);
+            sb.setLength(0);
+            sb.append(sdf.format(date)).append(' ').append(e.type).append(' ')
+              .append(e.className).append('.').append(e.methodName).append(' ')
+              .append(e.text).append('\n');
+
+            write(sb.toString());
+          }
+          done++;
+        }
+
+        out.flush();
+
+        if (broken)
+        {
+          broken = false;
+          System.err.println("Cresendo: " + getName() + ": writing to '" + path + "' again");
+        }
+      }
+      catch (IOException e)
+      {
+        for (int i = done; i < batch.size(); i++)
+        {
+          if (batch.elementAt(i) != STOP)
+          {
+            failed.increment();
+          }
+        }
+        closeQuietly();
+
+        if (! broken)
+        {
+          broken = true;     // Only say so once until it works again
+          System.err.println("Cresendo: " + getName() + ": unable to write to '" + path + "': " + e.toString());
+        }
+      }
+
+      if (stop)
+      {
+        closeQuietly();
+        return;
+      }
+    }
+  }
+
+  private void closeQuietly()
+  {
+    if (out != null)
+    {
+      try
+      {
+        out.close();
+      }
+      catch (IOException e)
+      {
+        // Nothing more can be done with it
+      }
+      out = null;
+    }
+  }
+
+  private void open() throws IOException
+  {
+    File f = new File(path);
+
+    written = f.length();
+    out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f, true), "UTF-8"), 65536);
+  }
+
+  private void write(String s) throws IOException
+  {
+    out.write(s);
+    written += s.length();      // Characters, near enough to bytes for rotation
+
+    if (rotateBytes > 0 && written >= rotateBytes)
+    {
+      out.flush();
+      out.close();
+      rotate();
+      open();
+    }
+  }
+
+  // <file>.n-1 -> <file>.n ... <file> -> <file>.1
+  //
+  private void rotate()
+  {
+    String ext = compress ? ".gz" : "";
+    int n = rotateFiles;
+
+    new File(path + "." + n + ext).delete();
+
+    for (int i = n - 1; i >= 1; i--)
+    {
+      File from = new File(path + "." + i + ext);
+
+      if (from.exists())
+      {
+        from.renameTo(new File(path + "." + (i + 1) + ext));
+      }
+    }
+
+    File first = new File(path + ".1");
+
+    new File(path).renameTo(first);
+
+    if (compress)
+    {
+      try
+      {
+        gzip(first, new File(path + ".1.gz"));
+        first.delete();
+      }
+      catch (IOException e)
+      {
+        System.err.println("Cresendo: " + getName() + ": unable to compress '" + first.getPath() + "': " + e.toString());
+      }
+    }
+  }
+
+  private static void gzip(File from, File to) throws IOException
+  {
+    FileInputStream in = new FileInputStream(from);
+    GZIPOutputStream gz = new GZIPOutputStream(new FileOutputStream(to), 65536);
+    byte[] buf = new byte[65536];
+    int n = 0;
+
+    try
+    {
+      while ((n = in.read(buf)) > 0)
+      {
+        gz.write(buf, 0, n);
+      }
+    }
+    finally
+    {
+      in.close();
+      gz.close();
+    }
+  }
+}
@@ -0,0 +1,137 @@
+//**********************************************************************
+// cresendo - EngineStats
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+// Live view of the event engine published over JMX.  Counters are read
+// from the MetricsRegistry and the engine's ring buffers so nothing here
+// touches the event path.
+//
+public class EngineStats implements EngineStatsMBean
+{
+  private EventEngine engine = null;
+  private RateMeter receivedRate = new RateMeter();
+
+  EngineStats(EventEngine e)
+  {
+    engine = e;
+  }
+
+  public long getReceived()
+  {
+    return MetricsRegistry.value(EventEngine.RECEIVED);
+  }
+
+  public double getReceivedRate()
+  {
+    return receivedRate.rate(getReceived());
+  }
+
+  public long getSentSuccess()
+  {
+    return MetricsRegistry.value(EventSend.SUCCESS);
+  }
+
+  public long getSentFailed()
+  {
+    return MetricsRegistry.value(EventSend.FAILED);
+  }
+
+  public long getSentFiltered()
+  {
+    return MetricsRegistry.value(EventSend.FILTERED);
+  }
+
+  public int getThreads()
+  {
+    return engine.threads();
+  }
+
+  public long getQueueDepth()
+  {
+    return engine.queueDepth();
+  }
+
+  public long getQueueCapacity()
+  {
+    return engine.queueCapacity();
+  }
+
+  public long getQueueDropped()
+  {
+    return engine.queueDropped();
+  }
+
+  public long getQueueSpilled()
+  {
+    return engine.queueSpilled();
+  }
+
+  public double getQueueBlockedMillis()
+  {
+    return engine.queueBlocked() / 1000000.0;
+  }
+
+  public double getChainBatchLatencyP50Micros()
+  {
+    return chainPercentile(50.0);
+  }
+
+  public double getChainBatchLatencyP99Micros()
+  {
+    return chainPercentile(99.0);
+  }
+
+  public double getChainBatchLatencyP999Micros()
+  {
+    return chainPercentile(99.9);
+  }
+
+  public double getChainBatchLatencyMaxMicros()
+  {
+    LatencyHistogram h = MetricsRegistry.getLatency(EventHandlerChain.LATENCY);
+    return (h == null) ? 0.0 : h.liveMax() / 1000.0;
+  }
+
+  // Percentiles are only available when the engine latency attribute is on
+  //
+  private double chainPercentile(double p)
+  {
+    LatencyHistogram h = MetricsRegistry.getLatency(EventHandlerChain.LATENCY);
+    return (h == null) ? 0.0 : h.livePercentile(p) / 1000.0;
+  }
+
+  public boolean isTracing()
+  {
+    return Cresendo.trcLogger.isLogging;
+  }
+
+  public void setTracing(boolean t)
+  {
+    Cresendo.trcLogger.setLogging(t);
+    Cresendo.eifTrcLogger.setLogging(t);
+  }
+
+  public void resetCounters()
+  {
+    MetricsRegistry.reset();
+    engine.resetCounters();
+  }
+}
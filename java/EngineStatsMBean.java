@@ -0,0 +1,45 @@
+//**********************************************************************
+// cresendo - EngineStatsMBean
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+// Management interface of the event engine (see EngineStats)
+//
+public interface EngineStatsMBean
+{
+  public long getReceived();
+  public double getReceivedRate();
+  public long getSentSuccess();
+  public long getSentFailed();
+  public long getSentFiltered();
+  public int getThreads();
+  public long getQueueDepth();
+  public long getQueueCapacity();
+  public long getQueueDropped();
+  public long getQueueSpilled();
+  public double getQueueBlockedMillis();
+  public double getChainBatchLatencyP50Micros();
+  public double getChainBatchLatencyP99Micros();
+  public double getChainBatchLatencyP999Micros();
+  public double getChainBatchLatencyMaxMicros();
+  public boolean isTracing();
+  public void setTracing(boolean t);
+  public void resetCounters();
+}
@@ -0,0 +1,372 @@
+//**********************************************************************
+// cresendo - EventBench
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Vector;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.configuration.XMLConfiguration;
+import com.ibm.logging.LogRecord;
+import com.ibm.logging.MessageLogger;
+import com.ibm.logging.TraceLogger;
+import com.tivoli.tec.event_delivery.TECEvent;
+
+// Offline benchmark of an instance's chain of event handlers (cresendo
+// bench).  The handlers are loaded from the instance's engine xml file by
+// the same code as the instance uses (Cresendo.loadHandlers), each
+// EventSend is replaced by a sink which only counts events, and a corpus
+// of captured events is replayed through the chain as fast as possible on
+// 1, 2, ... up to the given number of threads.
+//
+// The corpus is converted from EIF text for every pass, in messages of
+// EventEngineWorker.BATCH_SIZE events, so handlers which change events
+// always start from the captured values and the figures include the
+// conversion the engine does in onMessage.  For each number of threads
+// the events per second, the bytes allocated per event and a second, and
+// the time each handler takes per event are reported.
+//
+public class EventBench
+{
+  // Stands in for EventSend at the end of the chain
+  //
+  static final class Sink implements IEventHandler
+  {
+    final LongAdder count = new LongAdder();
+
+    public boolean processEvent(TECEvent ev)
+    {
+      count.increment();
+      return true;
+    }
+
+    public int processBatch(TECEvent[] batch, int n)
+    {
+      count.add(n);
+      return n;
+    }
+  }
+
+  // One replay thread
+  //
+  private static final class Replay extends Thread
+  {
+    private EventHandlerChain chain = null;
+    private String[] message = null;
+    private long deadline = 0;
+    long events = 0;           // Events passed along the chain
+    long allocated = 0;        // Bytes allocated by the thread (-1 if not known)
+
+    Replay(EventHandlerChain c, String[] m, long d)
+    {
+      super("EventBench-replay");
+      chain = c;
+      message = m;
+      deadline = d;
+    }
+
+    public void run()
+    {
+      long before = allocated();
+
+      for (int i = 0; System.nanoTime() < deadline; i = (i + 1) % message.length)
+      {
+        TECEvent[] tea = TECEvent.convert(message[i], Cresendo.eifMsgLogger, Cresendo.eifTrcLogger);
+
+        EventEngine.begin(tea, null, EventContext.stamping ? System.nanoTime() : 0, tea.length);
+        chain.process(tea, tea.length);
+        events += tea.length;
+      }
+
+      allocated = (before < 0) ? -1 : allocated() - before;
+    }
+
+    private static long allocated()
+    {
+      java.lang.management.ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+
+      if (tmx instanceof com.sun.management.ThreadMXBean)
+      {
+        return ((com.sun.management.ThreadMXBean) tmx).getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+
+      return -1;
+    }
+  }
+
+  // Replay the corpus on the given number of threads for the given time.
+  // Returns the threads once they have all finished.
+  //
+  private static Replay[] run(EventHandlerChain chain, String[] message, int threads, int seconds)
+    throws InterruptedException
+  {
+    Replay[] r = new Replay[threads];
+    long deadline = System.nanoTime() + seconds * 1000000000L;
+
+    for (int i = 0; i < threads; i++)
+    {
+      r[i] = new Replay(chain, message, deadline);
+      r[i].start();
+    }
+
+    for (int i = 0; i < threads; i++)
+    {
+      r[i].join();
+    }
+
+    return r;
+  }
+
+  // Read the corpus and group it into EIF messages of a batch each
+  //
+  private static String[] corpus(String path) throws IOException
+  {
+    StringBuilder text = new StringBuilder();
+    FileReader in = new FileReader(path);
+    char[] buf = new char[65536];
+    int n = 0;
+
+    while ((n = in.read(buf)) > 0)
+    {
+      text.append(buf, 0, n);
+    }
+    in.close();
+
+    TECEvent[] tea = TECEvent.convert(text.toString(), Cresendo.eifMsgLogger, Cresendo.eifTrcLogger);
+
+    if (tea == null || tea.length == 0)
+    {
+      return new String[0];
+    }
+
+    int batch = EventEngineWorker.BATCH_SIZE;
+    String[] message = new String[(tea.length + batch - 1) / batch];
+
+    for (int i = 0; i < message.length; i++)
+    {
+      StringBuilder sb = new StringBuilder();
+
+      for (int j = i * batch; j < Math.min(tea.length, (i + 1) * batch); j++)
+      {
+        sb.append(TECEvent.normalizeEvEnd(tea[j].toString(true)));
+      }
+
+      message[i] = sb.toString();
+    }
+
+    return message;
+  }
+
+  private static int intOption(CommandLine cl, String o, int d)
+  {
+    return cl.hasOption(o) ? Integer.parseInt(cl.getOptionValue(o)) : d;
+  }
+
+  public static void main(String[] args)
+  {
+    Options opts = new Options();
+    HelpFormatter hf = new HelpFormatter();
+    CommandLine cl = null;
+
+    opts.addOption("h", "help", false, "Command line arguments help");
+    opts.addOption("i", "instance name", true, "Name of cresendo instance");
+    opts.addOption("l", "log dir", true, "Path to log file directory");
+    opts.addOption("c", "config dir", true, "Path to configuarion file directory");
+    opts.addOption("f", "corpus", true, "File of captured EIF events to replay");
+    opts.addOption("t", "threads", true, "Run with 1 up to this many threads (default 1)");
+    opts.addOption("d", "duration", true, "Seconds to replay for with each number of threads (default 10)");
+    opts.addOption("w", "warm up", true, "Seconds to replay for before the first run (default 5)");
+    opts.addOption("k", "keep send", false, "Keep EventSend in the chain, sending to a stub");
+
+    opts.getOption("l").setRequired(true);
+    opts.getOption("c").setRequired(true);
+    opts.getOption("f").setRequired(true);
+
+    int threads = 0;
+    int duration = 0;
+    int warmUp = 0;
+
+    try
+    {
+      cl = new BasicParser().parse(opts, args);
+
+      if (cl.hasOption('h'))
+      {
+        hf.printHelp("Options", opts);
+        System.exit(0);
+      }
+
+      threads = intOption(cl, "t", 1);
+      duration = intOption(cl, "d", 10);
+      warmUp = intOption(cl, "w", 5);
+    }
+    catch (ParseException e)
+    {
+      hf.printHelp(e.toString(), opts);
+      System.exit(1);
+    }
+    catch (NumberFormatException e)
+    {
+      hf.printHelp("Options should be whole numbers: " + e.getMessage(), opts);
+      System.exit(1);
+    }
+
+    if (threads <= 0 || duration <= 0 || warmUp < 0)
+    {
+      hf.printHelp("The threads and duration should be greater than zero", opts);
+      System.exit(1);
+    }
+
+    // Set up cresendo as the instance would be, but with logs of its own
+    // and without tracing
+    //
+    Cresendo.dirSep = System.getProperty("file.separator", "/");
+
+    if (cl.hasOption('i'))
+    {
+      Cresendo.instanceName = cl.getOptionValue('i');
+    }
+
+    Cresendo.configDir = cl.getOptionValue('c');
+    Cresendo.logDir = cl.getOptionValue('l');
+
+    String base = Cresendo.logDir + Cresendo.dirSep + Cresendo.instanceName;
+
+    Cresendo.msgLogger = new EngineLogger("message", base + "-bench.log", 1024);
+    Cresendo.msgLogger.start();
+
+    Cresendo.trcLogger = new EngineLogger("trace", base + "-bench.trace", 1024);
+    Cresendo.trcLogger.setOverflow(EngineLogger.DROP);
+    Cresendo.trcLogger.setLogging(false);
+    Cresendo.trcLogger.start();
+
+    Cresendo.eifMsgLogger = new MessageLogger("cresendo", "message log");
+    Cresendo.eifTrcLogger = new TraceLogger("cresendo", "trace log");
+    Cresendo.eifTrcLogger.setLogging(false);
+
+    // EventSend connects to its destination when it is loaded so give it
+    // a sender which goes nowhere
+    //
+    final LongAdder stubbed = new LongAdder();
+
+    IEventSender stub = new IEventSender()
+    {
+      public int sendEvent(String event)
+      {
+        stubbed.increment();
+        return event.length();
+      }
+    };
+
+    String cfgFileEngine = Cresendo.configDir + Cresendo.dirSep + Cresendo.instanceName + ".xml";
+    Vector<IEventHandler> eventHandler = new Vector<IEventHandler>(10, 10);
+    LogRecord msg = new EngineLogRecord(LogRecord.TYPE_INFO, "EventBench", "main");
+    String[] message = null;
+
+    try
+    {
+      XMLConfiguration xmlProcessor = Cresendo.loadEngine(cfgFileEngine);
+
+      Cresendo.loadHandlers(xmlProcessor, eventHandler, msg, stub);
+
+      message = corpus(cl.getOptionValue('f'));
+    }
+    catch (Exception e)
+    {
+      System.err.println("Error: " + e.toString());
+      System.exit(1);
+    }
+
+    if (message.length == 0)
+    {
+      System.err.println("Error: No events found in corpus: '" + cl.getOptionValue('f') + "'");
+      System.exit(1);
+    }
+
+    Sink sink = new Sink();
+
+    for (int i = 0; ! cl.hasOption('k') && i < eventHandler.size(); i++)
+    {
+      if (eventHandler.elementAt(i) instanceof EventSend)
+      {
+        eventHandler.setElementAt(sink, i);
+      }
+    }
+
+    EventHandlerChain chain = new EventHandlerChain(eventHandler, true);
+
+    System.out.println("\n  Replaying '" + message.length + "' batches of up to '" + EventEngineWorker.BATCH_SIZE +
+                       "' events through the chain of '" + chain.size() + "' handlers of instance '" +
+                       Cresendo.instanceName + "'");
+
+    try
+    {
+      run(chain, message, threads, warmUp);
+
+      for (int t = 1; t <= threads; t++)
+      {
+        MetricsRegistry.reset();
+
+        Replay[] r = run(chain, message, t, duration);
+        long events = 0;
+        long allocated = 0;
+
+        for (int i = 0; i < r.length; i++)
+        {
+          events += r[i].events;
+          allocated = (allocated < 0 || r[i].allocated < 0) ? -1 : allocated + r[i].allocated;
+        }
+
+        System.out.println("\n  Threads '" + t + "': '" + String.format("%.0f", events / (double) duration) +
+                           "' events a second" +
+                           ((allocated < 0) ? "" : ", '" + String.format("%.0f", allocated / (double) Math.max(events, 1)) +
+                            "' bytes an event, '" + String.format("%.1f", allocated / (1048576.0 * duration)) +
+                            "' MB a second allocated"));
+
+        Vector<HandlerMetrics> hm = MetricsRegistry.handlers();
+
+        for (int i = 0; i < hm.size(); i++)
+        {
+          HandlerMetrics m = hm.elementAt(i);
+
+          m.latency.roll();
+          System.out.println("    Handler " + m.position + " " + m.className + ": in '" + m.in.sum() +
+                             "' out '" + m.out.sum() + "' mean '" + m.latency.mean(true) +
+                             "' p50 '" + m.latency.percentile(true, 50.0) +
+                             "' p99 '" + m.latency.percentile(true, 99.0) + "' ns an event");
+        }
+      }
+    }
+    catch (InterruptedException e)
+    {
+      System.exit(1);
+    }
+
+    System.exit(0);
+  }
+}
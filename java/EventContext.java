@@ -0,0 +1,285 @@
+//**********************************************************************
+// cresendo - EventContext
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import com.tivoli.tec.event_delivery.TECEvent;
+
+// What the engine knows about each event of the batch its thread is
+// passing along the chain of handlers.  TECEvent can't carry anything of
+// ours so the engine fills in one EventContext per thread before it
+// dispatches a batch, and handlers look an event up by identity.  The
+// handlers see the events in batch order so the lookup starts where the
+// last one finished and is normally a single comparison.
+//
+// When latency is on the context also holds the time (System.nanoTime)
+// each event was received by EventEngine.onMessage, so that the time to
+// send or drop it can be recorded.
+//
+// The short host name and situation name of each event are kept as well,
+// so that when several handlers of the chain want them they are only
+// worked out once.  Each is kept with the slot value it came from and is
+// worked out again if a handler has changed the slot since.
+//
+final class EventContext
+{
+  private static final ThreadLocal<EventContext> local = new ThreadLocal<EventContext>()
+  {
+    protected EventContext initialValue()
+    {
+      return new EventContext();
+    }
+  };
+
+  static volatile boolean stamping = false;      // Are receive times being recorded (engine latency attribute)
+
+  private TECEvent[] event = new TECEvent[64];    // Events of the batch, in the order received
+  private boolean[] traced = new boolean[64];     // Whether each event is to be traced
+  private long[] received = new long[64];         // When each event was received (0 if not known)
+  private boolean[] gone = new boolean[64];       // Whether each event has been dropped by a handler
+  private String[] rawHost = new String[64];      // Value of the hostname slot each short host name came from
+  private String[] host = new String[64];         // Short host name of each event (see SlotValue.host)
+  private String[] rawSit = new String[64];       // Value of the situation_name slot each situation came from
+  private String[] sit = new String[64];          // Situation name of each event (see SlotValue.situation)
+  private String[] text = new String[64];         // Scratch space for handlers turning a batch into text
+  private int count = 0;                          // Events in the batch
+  private int cursor = 0;                         // Where the last lookup found its event
+  private boolean anyTraced = false;              // Is any event of the batch traced
+  long seen = 0;                                  // Events seen by this thread (see TraceSampler)
+
+  private EventContext()
+  {
+  }
+
+  static EventContext current()
+  {
+    return local.get();
+  }
+
+  // Called by the engine before a batch is dispatched
+  //
+  void begin(TECEvent[] batch, int n)
+  {
+    if (event.length < n)
+    {
+      event = new TECEvent[n];
+      traced = new boolean[n];
+      received = new long[n];
+      gone = new boolean[n];
+      rawHost = new String[n];
+      host = new String[n];
+      rawSit = new String[n];
+      sit = new String[n];
+    }
+
+    for (int i = 0; i < n; i++)
+    {
+      event[i] = batch[i];
+      traced[i] = false;
+      received[i] = 0;
+      gone[i] = false;
+      rawHost[i] = null;
+      rawSit[i] = null;
+    }
+
+    for (int i = n; i < count; i++)
+    {
+      event[i] = null;                            // Don't hold on to old events
+      rawHost[i] = null;
+      rawSit[i] = null;
+    }
+
+    count = n;
+    cursor = 0;
+    anyTraced = false;
+  }
+
+  // Scratch array of at least n strings which a handler may fill while
+  // it is handling the batch.  The handler should clear what it used
+  // before it returns (see clear).
+  //
+  String[] text(int n)
+  {
+    if (text.length < n)
+    {
+      text = new String[n];
+    }
+    return text;
+  }
+
+  // Clear the first n scratch strings so they don't outlive the batch
+  //
+  void clear(int n)
+  {
+    for (int i = 0; i < n; i++)
+    {
+      text[i] = null;
+    }
+  }
+
+  // Decide which events of the batch are traced
+  //
+  void sample(TraceSampler sampler)
+  {
+    for (int i = 0; i < count; i++)
+    {
+      traced[i] = sampler.select(event[i], this);
+      anyTraced |= traced[i];
+    }
+  }
+
+  // Receive time of each event of the batch (t may be null)
+  //
+  void stamp(long[] t)
+  {
+    for (int i = 0; t != null && i < count; i++)
+    {
+      received[i] = t[i];
+    }
+  }
+
+  // Receive time shared by every event of the batch
+  //
+  void stamp(long t)
+  {
+    for (int i = 0; i < count; i++)
+    {
+      received[i] = t;
+    }
+  }
+
+  boolean anyTraced()
+  {
+    return anyTraced;
+  }
+
+  // Position of the event in the batch or -1 if it isn't part of it
+  //
+  private int find(TECEvent e)
+  {
+    for (int n = 0; n < count; n++)
+    {
+      int i = cursor + n;
+
+      if (i >= count)
+      {
+        i -= count;
+      }
+
+      if (event[i] == e)
+      {
+        cursor = i;
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  boolean isTraced(TECEvent e)
+  {
+    int i = anyTraced ? find(e) : -1;
+    return i >= 0 && traced[i];
+  }
+
+  // When the event was received (System.nanoTime) or 0 if not known
+  //
+  long received(TECEvent e)
+  {
+    int i = stamping ? find(e) : -1;
+    return (i < 0) ? 0 : received[i];
+  }
+
+  // Short host name of the event's hostname slot or null if it has none.
+  // Events which aren't part of the batch go straight to SlotValue.
+  //
+  String host(TECEvent e)
+  {
+    String raw = e.getSlot("hostname");
+    int i = (raw == null) ? -1 : find(e);
+
+    if (i < 0)
+    {
+      return SlotValue.host(raw);
+    }
+
+    if (raw != rawHost[i])
+    {
+      host[i] = SlotValue.host(raw);
+      rawHost[i] = raw;
+    }
+
+    return host[i];
+  }
+
+  // Situation name of the event's situation_name slot or null if it has
+  // none
+  //
+  String situation(TECEvent e)
+  {
+    String raw = e.getSlot("situation_name");
+    int i = (raw == null) ? -1 : find(e);
+
+    if (i < 0)
+    {
+      return SlotValue.situation(raw);
+    }
+
+    if (raw != rawSit[i])
+    {
+      sit[i] = SlotValue.situation(raw);
+      rawSit[i] = raw;
+    }
+
+    return sit[i];
+  }
+
+  // A handler has just dropped some events, leaving the first left events
+  // of the batch.  Handlers keep the events they pass on in order, so
+  // walking the batch alongside the events the context started with
+  // finds the ones which have gone, and the time since each was received
+  // is recorded.
+  //
+  void dropped(TECEvent[] batch, int left, long now, LatencyHistogram h)
+  {
+    int j = 0;
+
+    for (int i = 0; i < count; i++)
+    {
+      if (gone[i])
+      {
+        continue;
+      }
+
+      if (j < left && batch[j] == event[i])
+      {
+        j++;
+        continue;
+      }
+
+      gone[i] = true;
+
+      if (received[i] != 0)
+      {
+        h.record(now - received[i]);
+      }
+    }
+  }
+}
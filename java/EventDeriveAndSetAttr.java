@@ -20,6 +20,9 @@
 //***********************************************************************
 
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 import com.ibm.logging.Logger;
 import com.ibm.logging.LogRecord;
 import com.tivoli.tec.event_delivery.TECEvent;
@@ -32,13 +35,126 @@ public class EventDeriveAndSetAttr implements IEventHandler
   private String setAttr = null;      // Attribute to set
   private int setCase = 0;            // Set the case of result (0=leave as is, 1=upper, 2=lower)
   private boolean rindex = false;     // Interpret index as from the end of the string
-  private LogRecord msg = null;       // Message record
-  private LogRecord trc = null;       // Trace record
+  private String literal = null;      // Delimiter as plain text when it isn't really a regex (else null)
+  private Pattern pattern = null;     // Compiled delimiter when it is a regex
+  private ThreadLocal<LinkedHashMap<String, String>> memo = null;   // Source value -> quoted value set
+  private ThreadLocalRecord msgRecord = null;   // Message record (one per engine thread)
+
+  private static final int MEMO_SIZE = 64;      // Source values remembered per thread
 
   private void initMsgAndTrcRecord()
   {
-    msg = new LogRecord(LogRecord.TYPE_WARN, "EventDeriveAndSetAttr", "processEvent", "", "", "", "", "");
-    trc = new LogRecord(LogRecord.TYPE_ENTRY, "EventDeriveAndSetAttr", "processEvent", "", "", "", "", "");
+    msgRecord = new ThreadLocalRecord(LogRecord.TYPE_WARN, "EventDeriveAndSetAttr");
+  }
+
+  // Delimiters are nearly always a single character such as ':' or '.'
+  // (written as "\\." or "[.]") so those are split on as plain text.  Any
+  // other delimiter is compiled once.  The value set depends only on the
+  // source value so the last few are remembered by each thread.
+  //
+  private void initDelimiter()
+  {
+    literal = (index < 0) ? null : literal(delimiter);   // Leave a negative index to fail as it always has
+
+    if (literal == null)
+    {
+      pattern = Pattern.compile(delimiter);
+    }
+
+    memo = new ThreadLocal<LinkedHashMap<String, String>>()
+    {
+      protected LinkedHashMap<String, String> initialValue()
+      {
+        return new LinkedHashMap<String, String>(16, 0.75f, true)
+        {
+          protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+          {
+            return size() > MEMO_SIZE;     // Least recently used goes first
+          }
+        };
+      }
+    };
+  }
+
+  // The text a regex matches if it only ever matches that text, otherwise
+  // null
+  //
+  static String literal(String regex)
+  {
+    int len = regex.length();
+
+    if (len == 2 && regex.charAt(0) == '\\' && ! Character.isLetterOrDigit(regex.charAt(1)))
+    {
+      return regex.substring(1);                 // Escaped character, eg "\\."
+    }
+
+    if (len == 3 && regex.charAt(0) == '[' && regex.charAt(2) == ']' && "^\\[]&".indexOf(regex.charAt(1)) < 0)
+    {
+      return regex.substring(1, 2);              // Class of one character, eg "[.]"
+    }
+
+    for (int i = 0; i < len; i++)
+    {
+      if ("\\^$.|?*+()[]{}".indexOf(regex.charAt(i)) >= 0)
+      {
+        return null;
+      }
+    }
+
+    return (len == 0) ? null : regex;
+  }
+
+  // Number of components the value splits into with a literal delimiter,
+  // counted the way String.split does: a value without the delimiter is
+  // one component and empty components at the end don't count
+  //
+  private int components(String value)
+  {
+    int at = value.indexOf(literal);
+
+    if (at < 0)
+    {
+      return 1;
+    }
+
+    int from = 0;
+    int n = 0;
+    int last = -1;                               // Last component which isn't empty
+
+    while (true)
+    {
+      int end = (at < 0) ? value.length() : at;
+
+      if (end > from)
+      {
+        last = n;
+      }
+      n++;
+
+      if (at < 0)
+      {
+        return last + 1;
+      }
+
+      from = at + literal.length();
+      at = value.indexOf(literal, from);
+    }
+  }
+
+  // Component n of the value (n less than components(value))
+  //
+  private String component(String value, int n)
+  {
+    int from = 0;
+
+    for (int j = 0; j < n; j++)
+    {
+      from = value.indexOf(literal, from) + literal.length();
+    }
+
+    int end = value.indexOf(literal, from);
+
+    return value.substring(from, (end < 0) ? value.length() : end);
   }
 
   public EventDeriveAndSetAttr(String f, String d, int p, String s)
@@ -48,6 +164,7 @@ public class EventDeriveAndSetAttr implements IEventHandler
     index = p;
     setAttr = s;
     initMsgAndTrcRecord();
+    initDelimiter();
   }
 
   public EventDeriveAndSetAttr(String f, String d, int p, String s, int c)
@@ -58,6 +175,7 @@ public class EventDeriveAndSetAttr implements IEventHandler
     setAttr = s;
     setCase = c;
     initMsgAndTrcRecord();
+    initDelimiter();
   }
 
   public EventDeriveAndSetAttr(String f, String d, int p, String s, int c, boolean r)
@@ -69,25 +187,22 @@ public class EventDeriveAndSetAttr implements IEventHandler
     setCase = c;
     rindex = r;
     initMsgAndTrcRecord();
+    initDelimiter();
   }
 
   public boolean processEvent(TECEvent e)
   {
-    // Clear previous text in messaage and trace records
-    //
-    msg.setText("");
-    trc.setText("");
+    TraceBuffer trc = TraceBuffer.begin("EventDeriveAndSetAttr", e);   // null unless tracing
 
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      trc.setText("Received event as -----> \n  " + e.toString() +
-                  "\n  Source attribute is: '" + srcAttr + "'\n" +
-                  "\n         Delimiter is: '" + delimiter + "'\n" +
-                  "\n             Index is: '" + index + "'\n" +
-                  "\n    Setting attribute: '" + setAttr + "'\n" +
-                  "\n          Set Case is: '" + setCase + "'\n" +
-                  "\n     Reverse Index is: '" + rindex + "'\n"
-                  );
+      trc.append("Received event as -----> \n  ").event()
+        .append("\n  Source attribute is: '").append(srcAttr).append("'\n")
+        .append("\n         Delimiter is: '").append(delimiter).append("'\n")
+        .append("\n             Index is: '").append(index).append("'\n")
+        .append("\n    Setting attribute: '").append(setAttr).append("'\n")
+        .append("\n          Set Case is: '").append(setCase).append("'\n")
+        .append("\n     Reverse Index is: '").append(rindex).append("'\n");
     }
 
     String srcValue = e.getSlot(srcAttr);
@@ -97,61 +212,130 @@ public class EventDeriveAndSetAttr implements IEventHandler
     //
     if (srcValue == null)
     {
-      if (Cresendo.trcLogger.isLogging)
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  WARNING: Bailing out because source attribute '" + srcAttr + "' has no value\n");
-        Cresendo.trcLogger.log(trc);
+        trc.append("\n  WARNING: Bailing out because source attribute '").append(srcAttr)
+          .append("' has no value\n");
+        trc.log();
       }
 
       return true;  // Allow event handlers to continue processing events
     }
 
-    // Split the source value string using the delimiter and extract the sub-string component
-    // indicated by the value of the index
+    LinkedHashMap<String, String> seen = memo.get();
+    String quoted = seen.get(srcValue);
+
+    if (quoted == null)
+    {
+      quoted = derive(srcValue, trc);
+
+      if (quoted == null)
+      {
+        return true;  // Allow event handlers to continue processing events
+      }
+
+      seen.put(srcValue, quoted);
+    }
+    else if (trc != null)
+    {
+      trc.append("\n  Value derived from '").append(srcValue).append("' before is: ").append(quoted).append("\n");
+    }
+
+    boolean validNameAndValue = e.setSlot(setAttr, quoted);
+
+    if (validNameAndValue != true)
+    {
+      // This is where we can register the fact that the attribute wasn't set because
+      // there were some invalid characters in the attribute's name and/or value
+      //
+      String text = "\n  WARNING: Attribute not set due to invalid characters in either the name or value\n" +
+        "Attribute  name: '" + setAttr + "'\n" +
+        "Attribute value: " + quoted + "\n";
+
+      // Write trace record
+      //
+      if (trc != null)
+      {
+        trc.append(text);
+      }
+
+      // Write Message Record
+      //
+      LogRecord msg = msgRecord.get();
+      msg.setText(text);
+      Cresendo.msgLogger.log(msg);
+    }
+
+    // Write trace file
     //
-    String[] result = srcValue.split(delimiter);
+    if (trc != null)
+    {
+      trc.changed().append("\n  Transformed event to -----> \n  ").event();
+      trc.log();
+    }
+
+    return true;   // Allow event handlers to continue processing events
+  }
 
-    if (index >= result.length)
+  // Split the source value using the delimiter and return the component
+  // indicated by the index, quoted ready to set.  Returns null, having
+  // logged why, if there is no usable component.
+  //
+  private String derive(String srcValue, TraceBuffer trc)
+  {
+    String[] result = null;   // Every component (regex delimiters only)
+    int length = 0;           // Number of components
+
+    if (literal != null)
+    {
+      length = components(srcValue);
+    }
+    else
+    {
+      result = pattern.split(srcValue);
+      length = result.length;
+    }
+
+    if (index >= length)
     {
       String text = "\n  WARNING: Bailing out because the index: '" + index +
-        "' is greater than or equal to the number of resultant components: '" + result.length + "'\n";
+        "' is greater than or equal to the number of resultant components: '" + length + "'\n";
       
       // Log to trace file
       //
-      if (Cresendo.trcLogger.isLogging)
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + text);
-        Cresendo.trcLogger.log(trc);
+        trc.append(text);
+        trc.log();
       }
 
       // Log to message file
       //
+      LogRecord msg = msgRecord.get();
       msg.setText(text); 
       Cresendo.msgLogger.log(msg);
 
-      return true;  // Allow event handlers to continue processing events
+      return null;
     }
 
     int i = 0;    // The index into the result array
 
     if (rindex)   // Interpret index to work from right to left
     {
-      i = result.length - 1 - index;
+      i = length - 1 - index;
     }
     else         // Interpret index to work from left to right
     {
       i = index;
     }
 
-    String setValue = result[i];
+    String setValue = (result == null) ? component(srcValue, i) : result[i];
 
     // Protect against null, "" or " " resultant string values
     //
     if (setValue == null ||                    // Resultant value is null
         setValue.length() == 0 ||              // Resultant value is ""
-        setValue.trim().length() == 0          // Resultant value is only white space
+        SlotValue.trimsToNothing(setValue)     // Resultant value is only white space
         )
     {
       String text = "\n  WARNING: Bailing out because the resultant value of the component is either null," +
@@ -160,19 +344,19 @@ public class EventDeriveAndSetAttr implements IEventHandler
       
       // Log to trace file
       //
-      if (Cresendo.trcLogger.isLogging)
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + text);
-        Cresendo.trcLogger.log(trc);
+        trc.append(text);
+        trc.log();
       }
 
       // Log to message file
       //
+      LogRecord msg = msgRecord.get();
       msg.setText(text); 
       Cresendo.msgLogger.log(msg);
 
-      return true;  // Allow event handlers to continue processing events
+      return null;
     }
 
     switch (setCase)
@@ -185,47 +369,6 @@ public class EventDeriveAndSetAttr implements IEventHandler
 
     // Get rid of any quote characters (hanging or otherwise) and re-quote to avoid evil characters
     // 
-    boolean validNameAndValue = e.setSlot(setAttr, "'" + setValue.replaceAll("[\'\"]", "") + "'");
-
-    if (validNameAndValue != true)
-    {
-      // This is where we can register the fact that the attribute wasn't set because
-      // there were some invalid characters in the attribute's name and/or value
-      //
-      String text = "\n  WARNING: Attribute not set due to invalid characters in either the name or value\n" +
-        "Attribute  name: '" + setAttr + "'\n" +
-        "Attribute value: '" + setValue + "'\n";
-
-      // Write trace record
-      //
-      if (Cresendo.trcLogger.isLogging)
-      {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + text);
-      }
-
-      // Write Message Record
-      //
-      msg.setText(text);
-    }
-
-    // Write log file
-    //
-    String msgText = msg.getText();
-    if (msgText != null && msgText != "")
-    {
-      Cresendo.msgLogger.log(msg);
-    }
-
-    // Write trace file
-    //
-    if (Cresendo.trcLogger.isLogging)
-    {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Transformed event to -----> \n  " + e.toString());
-      Cresendo.trcLogger.log(trc);
-    }
-
-    return true;   // Allow event handlers to continue processing events
+    return "'" + SlotValue.stripQuotes(setValue) + "'";
   }
 }
@@ -20,21 +20,18 @@
 //***********************************************************************
 
 import java.io.File;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import com.tivoli.tec.event_delivery.TECEvent;
-import com.ibm.logging.Logger;
-import com.ibm.logging.LogRecord;
 
-public class EventDropByHostName implements IEventHandler
+public class EventDropByHostName implements IEventHandler, IReloadable
 {
   private File dropDir = null;               // Drop directory
-  private LogRecord msg = null;              // Message record
-  private LogRecord trc = null;              // Trace record
+  private volatile Set<String> dropHost = null;   // Names of the files in the drop directory
 
-  private void initMsgAndTrcRecord()
-  {
-    msg = new LogRecord(LogRecord.TYPE_WARN, "EventDropByHostName", "processEvent", "", "", "", "", "");
-    trc = new LogRecord(LogRecord.TYPE_ENTRY, "EventDropByHostName", "processEvent", "", "", "", "", "");
-  }
+  static final String DROPPED = "EventDropByHostName.dropped";
+  private static final LongAdder dropped = MetricsRegistry.counter(DROPPED);   // Events dropped based on host name
 
   private void stdErr(String m)
   {
@@ -45,9 +42,12 @@ public class EventDropByHostName implements IEventHandler
 
   public EventDropByHostName(String d) throws Exception
   {
-    File baseDir = new File(d);
+    this(d, 60);
+  }
 
-    initMsgAndTrcRecord();
+  public EventDropByHostName(String d, int rescan) throws Exception
+  {
+    File baseDir = new File(d);
 
     // Test whether the base directory exists
     //
@@ -90,126 +90,137 @@ public class EventDropByHostName implements IEventHandler
     {
       stdErr("Exception: " + e.getMessage());
     }
+
+    // Keep the contents of the drop directory in memory so that events
+    // never have to touch the filesystem.  Operators still drop events by
+    // touching and removing files, the watcher picks up the changes.
+    //
+    reload();
+    DirectoryWatcher.watch(dropDir, this, rescan * 1000L);
   }
 
-  public boolean processEvent(TECEvent ev)
+  // Reread the drop directory and swap in the new set of host names
+  //
+  public void reload()
   {
-    // Clear previous text in messaage and trace records
-    //
-    msg.setText("");
-    trc.setText("");
+    String[] name = dropDir.list();
 
-    if (Cresendo.trcLogger.isLogging)
+    if (name == null)
     {
-      trc.setText("Received event -----> \n  " + ev.toString() );
+      return;     // Keep the current set if the directory can't be read
     }
 
-    // Retrieve the value of the hostname attribute from the event
-    //
-    String fqhost = ev.getSlot("hostname");
+    Set<String> hosts = ConcurrentHashMap.newKeySet(name.length * 2);
 
-    // Check hostname attribute is not null or empty
-    //
-    if (fqhost == null || fqhost.length() == 0 )
+    for (int i = 0; i < name.length; i++)
     {
-      if (Cresendo.trcLogger.isLogging)
-      {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  BAILING as value of hostname attribute is either null or string length is zero \n");
-        Cresendo.trcLogger.log(trc);
-      }
-      return true;    // Allow event handlers to continue processing event
+      hosts.add(name[i]);
     }
 
-    // Strip any quotes
-    //
-    fqhost = fqhost.replaceAll("[\'\"]", "");
-    if (Cresendo.trcLogger.isLogging)
+    dropHost = hosts;
+  }
+
+  public boolean processEvent(TECEvent ev)
+  {
+    TraceBuffer trc = TraceBuffer.begin("EventDropByHostName", ev);   // null unless tracing
+
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Removed any single or double quotes from value of hostname attribute\n");
-      Cresendo.trcLogger.log(trc);
+      trc.append("Received event -----> \n  ").event();
     }
 
-    // Check hostname attribute is not null or empty
+    // Short host name (quotes and domain removed, lower case), worked out
+    // once per event however many handlers ask for it
     //
-    if (fqhost == null || fqhost.length() == 0 || fqhost.matches("^\\s*$"))
+    String host = EventContext.current().host(ev);
+
+    if (host == null)
     {
-      if (Cresendo.trcLogger.isLogging)
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  BAILING as value of hostname attribute is empty after removal of quotes \n");
-        Cresendo.trcLogger.log(trc);
+        trc.append("\n  BAILING as hostname attribute has no usable value -----> '")
+          .append(ev.getSlot("hostname")).append("'\n");
+        trc.log();
       }
       return true;    // Allow event handlers to continue processing event
     }
-    
 
-    // Strip off domain name (ie everthing after and including first dot character)
-    //
-    String host = null;
-    int idot = fqhost.indexOf('.');
-    if (idot >= 0)                         // A dot was found in the host name
+    if (trc != null)
     {
-      if (Cresendo.trcLogger.isLogging)
-      {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  Dot character found in hostname  -----> '" + fqhost + "'\n");
-      }
+      trc.append("\n  Short host name from hostname attribute -----> '").append(host).append("'\n")
+        .append("\n  Testing if drop file exists '").append(dropDir.getPath()).append(Cresendo.dirSep)
+        .append(host).append("'\n");
+    }
+
+    if (dropHost.contains(host))
+    {
+      dropped.increment();
 
-      host = fqhost.substring(0, idot);    // Strip domain name 
-      if (Cresendo.trcLogger.isLogging)
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  Stripped domain name from hostname  -----> '" + host + "'\n" );
+        trc.append("\n  Dropping event as host drop file exists:  '").append(dropDir.getPath())
+          .append(Cresendo.dirSep).append(host).append("'\n");
+        trc.log();
       }
-    }
-    else
-    {
-      host = fqhost;
-    }
 
-    host = host.toLowerCase();   // Convert host name to lower case
+      return false;  // Prevent subsequent event handlers from processing event
+    }
 
-    if (Cresendo.trcLogger.isLogging)
+    // Write trace file
+    //
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Converted hostname to lower case -----> '" + host + "'\n");
+      trc.append("\n  Passing event to next handler -----> \n  ").event();
+      trc.log();
     }
 
-    // Set up path to file corresponding to host name
-    //
-    File hostFile = new File(dropDir, host);
+    return true;    // Allow event handlers to continue processing event
+  }
 
-    if (Cresendo.trcLogger.isLogging)
+  // Events in a batch often come from the same host, so the result of
+  // the last drop list test is reused while the short host name stays the
+  // same.  Short host names come from the event context, which hands back
+  // the same string for the same hostname value.
+  //
+  public int processBatch(TECEvent[] batch, int count)
+  {
+    // With tracing on each event needs its own trace record
+    //
+    if (TraceBuffer.active())
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Testing if drop file exists '" + hostFile.getPath() + "'\n" );  
+      return IEventHandler.super.processBatch(batch, count);
     }
 
-    if (hostFile.exists())
+    EventContext ctx = EventContext.current();
+    String lastHost = null;       // Short host name last tested
+    boolean drop = false;         // Result of the last test
+    int kept = 0;
+
+    for (int i = 0; i < count; i++)
     {
-      StatusLogger.dropByHostName++;
+      String host = ctx.host(batch[i]);
 
-      if (Cresendo.trcLogger.isLogging)
+      if (host != lastHost)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  Dropping event as host drop file exists:  '" + hostFile.getPath() + "'\n");
-        Cresendo.trcLogger.log(trc);
+        drop = (host != null && dropHost.contains(host));
+        lastHost = host;
       }
 
-      return false;  // Prevent subsequent event handlers from processing event
+      if (drop)
+      {
+        dropped.increment();
+      }
+      else
+      {
+        batch[kept++] = batch[i];
+      }
     }
 
-    // Write trace file
-    //
-    if (Cresendo.trcLogger.isLogging)
+    for (int i = kept; i < count; i++)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Passing event to next handler -----> \n  " + ev.toString());
-      Cresendo.trcLogger.log(trc);
+      batch[i] = null;
     }
 
-    return true;    // Allow event handlers to continue processing event
+    return kept;
   }
 }
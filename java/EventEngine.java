@@ -19,8 +19,12 @@
 //  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
 //***********************************************************************
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.util.Vector;
-import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import com.ibm.logging.Logger;
 import com.ibm.logging.LogRecord;
 import com.ibm.logging.MessageLogger;
@@ -28,47 +32,510 @@ import com.ibm.logging.TraceLogger;
 import com.tivoli.tec.event_delivery.IEventProcessing;
 import com.tivoli.tec.event_delivery.TECEvent;
 
-public class EventEngine implements IEventProcessing
+public class EventEngine implements IEventProcessing, IStatusSource, IHealthSource
 {
-  private Vector<IEventHandler> handler = null;
+  private EventHandlerChain chain = null;
   private MessageLogger msg = null;
   private TraceLogger trc = null;
+  private String partitionSlot = "hostname";   // Attribute used to assign events to worker threads
+  private EventEngineWorker[] worker = null;   // Worker threads (null when running single threaded)
 
-  public EventEngine(Vector<IEventHandler> eventHandler, MessageLogger m, TraceLogger t)
+  static final int DEFAULT_CAPACITY = 8192;    // Default ring buffer size (events, shared by all workers)
+  private String stampSlot = null;             // Attribute set to the receive time (epoch milliseconds) or null
+  private volatile boolean accepting = true;   // Cleared at shutdown, events received after that are refused
+  private final AtomicInteger arriving = new AtomicInteger();   // onMessage calls in progress
+
+  static final String RECEIVED = "EventEngine.received";
+  static final String QUEUE_WAIT = "engine.queue-wait";
+  static final String RECEIVE_TO_DROP = "engine.receive-to-drop";
+  static final String REFUSED = "EventEngine.refused";
+  private static final LongAdder received = MetricsRegistry.counter(RECEIVED);   // Events successfully received
+  private static final LongAdder refused = MetricsRegistry.counter(REFUSED);     // Events received during shutdown
+
+  public EventEngine(EventHandlerChain c, MessageLogger m, TraceLogger t)
+  {
+    chain = c;
+    msg = m;
+    trc = t;
+  }
+
+  public EventEngine(EventHandlerChain c, MessageLogger m, TraceLogger t,
+                     int threads, String slot, int capacity, int policy)
   {
-    handler = eventHandler;
+    chain = c;
     msg = m;
     trc = t;
+    partitionSlot = slot;
+
+    // A buffer on its own still needs a thread to take the events off it
+    //
+    if (threads == 0 && capacity > 0)
+    {
+      threads = 1;
+    }
+
+    if (capacity == 0)
+    {
+      capacity = DEFAULT_CAPACITY;
+    }
+
+    // Events are hashed onto a fixed set of worker threads by the value of
+    // the partition attribute.  Each worker has its own ring buffer and
+    // processes its events in the order they were received so events from
+    // the same host stay in order while events from different hosts are
+    // processed concurrently.  The receiver thread only has to place the
+    // event in the buffer so a slow handler no longer holds it up.
+    //
+    if (threads > 0)
+    {
+      worker = new EventEngineWorker[threads];
+
+      for (int i = 0; i < threads; i++)
+      {
+        EventSpillFile spill = null;
+
+        if (policy == EventRingBuffer.SPILL)
+        {
+          spill = new EventSpillFile(Cresendo.logDir + Cresendo.dirSep + Cresendo.instanceName +
+                                     "-engine-" + i + ".spill");
+        }
+
+        EventRingBuffer rb = new EventRingBuffer(capacity / threads, policy, spill);
+
+        if (EventContext.stamping)
+        {
+          rb.waitLatency = MetricsRegistry.latency(QUEUE_WAIT);
+        }
+
+        worker[i] = new EventEngineWorker(this, i, rb);
+        worker[i].start();
+      }
+
+      adoptSpills(policy == EventRingBuffer.SPILL ? threads : 0);
+
+      StatusLogger.addSource(this);
+      MetricsRegistry.addHealth(this);
+    }
+  }
+
+  // Spill files are named after the worker which wrote them, so those
+  // left behind by a run with more threads, or with the spill policy when
+  // it is no longer used, would never be read back.  Their events are
+  // handed to the current workers, ahead of anything received, and the
+  // files removed.  The first inUse files belong to the workers.
+  //
+  private void adoptSpills(int inUse)
+  {
+    String prefix = Cresendo.instanceName + "-engine-";
+    String[] names = new File(Cresendo.logDir).list();
+
+    for (int n = 0; names != null && n < names.length; n++)
+    {
+      int index = -1;
+
+      if (names[n].startsWith(prefix) && names[n].endsWith(".spill"))
+      {
+        try
+        {
+          index = Integer.parseInt(names[n].substring(prefix.length(), names[n].length() - 6));
+        }
+        catch (NumberFormatException nfe)
+        {
+          continue;
+        }
+      }
+
+      if (index < inUse)
+      {
+        continue;
+      }
+
+      EventSpillFile spill = new EventSpillFile(Cresendo.logDir + Cresendo.dirSep + names[n]);
+      EventContext ctx = EventContext.current();
+      long adopted = 0;
+
+      try
+      {
+        while (spill.pending())
+        {
+          Vector<String> spilled = spill.drain(EventEngineWorker.BATCH_SIZE);
+
+          for (int i = 0; i < spilled.size(); i++)
+          {
+            TECEvent[] tea = convert(spilled.elementAt(i));
+
+            for (int j = 0; j < tea.length; j++)
+            {
+              worker[partition(tea[j], ctx)].getBuffer().put(tea[j]);
+            }
+            adopted += tea.length;
+          }
+        }
+
+        new File(spill.getPath()).delete();
+      }
+      catch (IOException ioe)
+      {
+        System.err.println("Cresendo: EventEngine: unable to read back '" + spill.getPath() + "': " + ioe.toString());
+      }
+
+      System.err.println("Cresendo: EventEngine: '" + adopted + "' events read back from '" + spill.getPath() + "'");
+    }
   }
 
   public boolean onMessage(String events)
   {
-    String trcTemp = null;
+    arriving.incrementAndGet();
+
+    try
+    {
+      return accept(events);
+    }
+    finally
+    {
+      arriving.decrementAndGet();
+    }
+  }
 
+  private boolean accept(String events)
+  {
     TECEvent[] tea = TECEvent.convert(events, msg, trc);
 
+    if (!accepting)
+    {
+      refused.add(tea.length);
+      return false;
+    }
+
+    received.add(tea.length);           // Increment the count of received events
+
+    // Every event of the message arrived at the same time so the clock is
+    // read once per message rather than once per event
+    //
+    long rx = EventContext.stamping ? System.nanoTime() : 0;
+
+    if (stampSlot != null)
+    {
+      String now = Long.toString(System.currentTimeMillis());
+
+      for (int i = 0; i < tea.length; i++)
+      {
+        tea[i].setSlot(stampSlot, now);
+      }
+    }
+
+    if (worker == null)
+    {
+      dispatch(tea, null, rx, tea.length);
+      return true;
+    }
+
+    // The ring buffers always need the time for their queue wait figures,
+    // latency or not
+    //
+    long queued = (rx != 0) ? rx : System.nanoTime();
+    EventContext ctx = EventContext.current();
+
     // For each TECEvent object
     // 
     for (int i = 0; i < tea.length; i++)
     {
-      Enumeration ev = handler.elements();
+      worker[partition(tea[i], ctx)].getBuffer().put(tea[i], queued);
+    }
+    return true;  // Let's always be happy
+  }
+
+  // Pass a batch of events along the chain of event handlers.  Each
+  // handler sees the whole batch before the next handler does, minus any
+  // events dropped by the handlers before it.
+  //
+  void dispatch(TECEvent[] batch, int count)
+  {
+    dispatch(batch, null, 0, count);
+  }
+
+  // As above for events whose receive times are known (rx[i] is when
+  // batch[i] was received)
+  //
+  void dispatch(TECEvent[] batch, long[] rx, int count)
+  {
+    dispatch(batch, rx, 0, count);
+  }
+
+  private void dispatch(TECEvent[] batch, long[] rx, long at, int count)
+  {
+    begin(batch, rx, at, count);
+
+    chain.process(batch, count);
+  }
+
+  // Set up the calling thread's EventContext for a batch about to go
+  // along the chain: decide once which events are traced when only some
+  // of them are and note when each event was received (rx[i] for
+  // batch[i], or at for all of them when rx is null).  Also used by the
+  // benchmarks, which drive a chain without an engine.
+  //
+  static EventContext begin(TECEvent[] batch, long[] rx, long at, int count)
+  {
+    boolean sampling = (TraceSampler.active != null && Cresendo.trcLogger.isLogging);
+    EventContext ctx = EventContext.current();
+
+    ctx.begin(batch, count);
 
-      StatusLogger.receivedCount++;   // Increment the count of received events
+    if (sampling)
+    {
+      ctx.sample(TraceSampler.active);
+    }
 
-      // For each event handler
-      //
-      while (ev.hasMoreElements())   
+    if (EventContext.stamping)
+    {
+      if (rx != null)
+      {
+        ctx.stamp(rx);
+      }
+      else
       {
-        IEventHandler eh = (IEventHandler) ev.nextElement();
+        ctx.stamp(at);
+      }
+    }
 
-        // If the event handler does not return true
-        //
-        if (! eh.processEvent(tea[i])) 
-        {
-          break;   // Then don't pass the TECEvent on to the next handler
-        }
+    return ctx;
+  }
+
+  // Called from the shutdown hook.  Stops taking events and waits, until
+  // the deadline (System.currentTimeMillis), for the events already taken
+  // to get to the end of the chain, then has the handlers flush what they
+  // hold (eg events still queued for sending go to the spool).  Returns
+  // the lines for the shutdown message.
+  //
+  Vector<String> shutdown(long deadline)
+  {
+    Vector<String> notes = new Vector<String>();
+
+    accepting = false;
+
+    while (System.currentTimeMillis() < deadline && !idle())
+    {
+      try
+      {
+        Thread.sleep(10);
+      }
+      catch (InterruptedException ie)
+      {
+        break;
       }
     }
-    return true;  // Let's always be happy
+
+    long left = queueDepth();
+
+    if (left > 0)
+    {
+      notes.add("Engine: '" + left + "' events not processed");
+    }
+
+    notes.addAll(chain.shutdown(deadline));
+
+    return notes;
+  }
+
+  private boolean idle()
+  {
+    if (arriving.get() > 0)
+    {
+      return false;
+    }
+
+    for (int i = 0; worker != null && i < worker.length; i++)
+    {
+      if (!worker[i].idle())
+      {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // Set the named attribute of every event received to the time it was
+  // received (milliseconds since the epoch) so that the receiving end can
+  // work out how long the event took to get there
+  //
+  void setStampSlot(String slot)
+  {
+    stampSlot = slot;
+  }
+
+  // Convert events read back from a spill file
+  //
+  TECEvent[] convert(String events)
+  {
+    return TECEvent.convert(events, msg, trc);
+  }
+
+  public void logStatus(FileWriter sfw) throws IOException
+  {
+    long depth = 0;
+    long capacity = 0;
+    long waitTotal = 0;
+    long waitCount = 0;
+    long waitMax = 0;
+    long dropped = 0;
+    long spilled = 0;
+    long blocked = 0;
+
+    for (int i = 0; i < worker.length; i++)
+    {
+      EventRingBuffer rb = worker[i].getBuffer();
+
+      depth += rb.size();
+      capacity += rb.capacity();
+      waitTotal += rb.waitTotal.getAndSet(0);
+      waitCount += rb.waitCount.getAndSet(0);
+      waitMax = Math.max(waitMax, rb.waitMax.getAndSet(0));
+      dropped += rb.dropped.get();
+      spilled += rb.spilled.get();
+      blocked += rb.blocked.get();
+    }
+
+    double waitAvg = (waitCount == 0) ? 0.0 : (waitTotal / (double) waitCount);
+
+    // Wait times cover the period since the status file was last written
+    //
+    sfw.write("\n         Engine threads: '" + worker.length + "'");
+    sfw.write("\n     Engine queue depth: '" + depth + "' of '" + capacity + "'");
+    sfw.write("\n  Engine queue wait avg: '" + String.format("%.3f", waitAvg / 1000000.0) + "' ms");
+    sfw.write("\n  Engine queue wait max: '" + String.format("%.3f", waitMax / 1000000.0) + "' ms");
+    sfw.write("\n   Engine queue dropped: '" + dropped + "'");
+    sfw.write("\n   Engine queue spilled: '" + spilled + "'");
+    sfw.write("\n   Engine queue blocked: '" + String.format("%.3f", blocked / 1000000.0) + "' ms");
+  }
+
+  // Live figures for the management view (see EngineStats)
+  //
+  int threads()
+  {
+    return (worker == null) ? 0 : worker.length;
+  }
+
+  long queueDepth()
+  {
+    long depth = 0;
+
+    for (int i = 0; worker != null && i < worker.length; i++)
+    {
+      depth += worker[i].getBuffer().size();
+    }
+
+    return depth;
+  }
+
+  long queueCapacity()
+  {
+    long capacity = 0;
+
+    for (int i = 0; worker != null && i < worker.length; i++)
+    {
+      capacity += worker[i].getBuffer().capacity();
+    }
+
+    return capacity;
+  }
+
+  long queueDropped()
+  {
+    long dropped = 0;
+
+    for (int i = 0; worker != null && i < worker.length; i++)
+    {
+      dropped += worker[i].getBuffer().dropped.get();
+    }
+
+    return dropped;
+  }
+
+  long queueSpilled()
+  {
+    long spilled = 0;
+
+    for (int i = 0; worker != null && i < worker.length; i++)
+    {
+      spilled += worker[i].getBuffer().spilled.get();
+    }
+
+    return spilled;
+  }
+
+  long queueBlocked()
+  {
+    long blocked = 0;
+
+    for (int i = 0; worker != null && i < worker.length; i++)
+    {
+      blocked += worker[i].getBuffer().blocked.get();
+    }
+
+    return blocked;
+  }
+
+  // Readiness (see MetricsHttpServer).  The engine is falling behind once
+  // its ring buffers are nine tenths full.
+  //
+  public String health()
+  {
+    long depth = queueDepth();
+    long capacity = queueCapacity();
+
+    if (capacity > 0 && depth * 10 >= capacity * 9)
+    {
+      return "Engine queue depth '" + depth + "' of '" + capacity + "'";
+    }
+
+    return null;
+  }
+
+  void resetCounters()
+  {
+    for (int i = 0; worker != null && i < worker.length; i++)
+    {
+      EventRingBuffer rb = worker[i].getBuffer();
+
+      rb.dropped.set(0);
+      rb.spilled.set(0);
+      rb.blocked.set(0);
+    }
+  }
+
+  // Work out which worker thread an event belongs to.  The value of the
+  // partition attribute is normalised in the same way as the host name
+  // handlers do it (ie quotes and domain name removed, lower case) so
+  // that "Serv01.example.com" and "'serv01'" end up on the same thread.
+  // Host and situation names come from the same caches the handlers use
+  // (see EventContext).
+  //
+  private int partition(TECEvent e, EventContext ctx)
+  {
+    String key = null;
+
+    if (partitionSlot.equals("hostname"))
+    {
+      key = ctx.host(e);
+    }
+    else if (partitionSlot.equals("situation_name"))
+    {
+      key = ctx.situation(e);
+    }
+    else
+    {
+      key = SlotValue.unquote(e.getSlot(partitionSlot));
+    }
+
+    if (key == null)
+    {
+      return 0;   // Events without a key are kept in order on the first worker
+    }
+
+    key = key.toLowerCase();
+
+    return (key.hashCode() & 0x7fffffff) % worker.length;
   }
 }
@@ -0,0 +1,134 @@
+//**********************************************************************
+// cresendo - EventEngineWorker
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+import java.util.Vector;
+import com.tivoli.tec.event_delivery.TECEvent;
+
+// A single engine thread.  The EventEngine places the events belonging
+// to the worker's partition in its ring buffer and the worker passes them
+// along the chain of event handlers one at a time in the order they were
+// received.  Events which overflowed to a spill file are picked up again
+// once the ring buffer is empty.  Until then new events go to the spill
+// file after them (see EventRingBuffer.put), so they stay in order.
+//
+class EventEngineWorker extends Thread
+{
+  static final int BATCH_SIZE = 64;         // Most events taken off the buffer in one go
+
+  private EventEngine engine = null;        // Engine owning the handler chain
+  private EventRingBuffer buffer = null;    // Events waiting to be processed
+  private TECEvent[] batch = null;          // Events passed along the chain together
+  private long[] received = null;           // When each event of the batch was received (System.nanoTime)
+  private volatile boolean busy = true;     // False only while waiting for events to arrive
+
+  EventEngineWorker(EventEngine ee, int id, EventRingBuffer rb)
+  {
+    super("EventEngineWorker-" + id);
+    engine = ee;
+    buffer = rb;
+    buffer.setConsumer(this);
+    batch = new TECEvent[BATCH_SIZE];
+    received = new long[BATCH_SIZE];
+    setDaemon(true);      // Don't hold up the jvm at shutdown
+  }
+
+  EventRingBuffer getBuffer()
+  {
+    return buffer;
+  }
+
+  // True once every event placed in the ring buffer has been passed along
+  // the chain (see EventEngine.shutdown).  Spilled events are left where
+  // they are, the spill file is picked up again at the next start.
+  //
+  boolean idle()
+  {
+    return !busy && buffer.size() == 0;
+  }
+
+  public void run()
+  {
+    while (true)
+    {
+      try
+      {
+        // Take whatever is waiting, up to a full batch
+        //
+        int count = 0;
+        TECEvent e = null;
+
+        busy = true;
+
+        while (count < BATCH_SIZE && (e = buffer.poll()) != null)
+        {
+          received[count] = buffer.polledStamp();
+          batch[count++] = e;
+        }
+
+        if (count > 0)
+        {
+          engine.dispatch(batch, received, count);
+        }
+        else if (buffer.hasSpill())
+        {
+          drainSpill();
+        }
+        else
+        {
+          busy = false;
+          buffer.await(10000000L);     // Wait up to 10ms for the next event
+        }
+      }
+      catch (Exception e)
+      {
+        // Don't let a misbehaving handler kill off the whole partition
+        //
+        System.err.println("Cresendo: " + getName() + ": " + e.toString());
+      }
+    }
+  }
+
+  private void drainSpill() throws Exception
+  {
+    Vector<String> spilled = buffer.getSpill().drain(BATCH_SIZE);
+    int count = 0;
+
+    for (int i = 0; i < spilled.size(); i++)
+    {
+      TECEvent[] tea = engine.convert(spilled.elementAt(i));
+
+      for (int j = 0; j < tea.length; j++)
+      {
+        if (count == BATCH_SIZE)
+        {
+          engine.dispatch(batch, count);
+          count = 0;
+        }
+        batch[count++] = tea[j];
+      }
+    }
+
+    if (count > 0)
+    {
+      engine.dispatch(batch, count);
+    }
+  }
+}
@@ -0,0 +1,263 @@
+//**********************************************************************
+// cresendo - EventHandlerChain
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.util.Vector;
+import com.tivoli.tec.event_delivery.TECEvent;
+
+// The chain of event handlers, frozen once the engine xml file has been
+// read.  The handlers are held in a plain array which is never changed
+// after construction, so passing an event along the chain takes no locks
+// and allocates nothing (unlike walking an Enumeration over a Vector,
+// which takes the Vector's monitor on every step).
+//
+// When the chain is timed, handlers which only process one event at a
+// time are timed per event.  Handlers with their own processBatch share
+// work between the events of a batch, so they are timed per call and the
+// figures are kept apart as the handler's batch latency, as is the time
+// the whole chain spends on a batch (chain.batch).  Nothing is averaged
+// over a batch, which would hide the slow events.  An untimed chain
+// never reads the clock unless receive times are being recorded, when
+// the time each dropped event had been in cresendo is recorded (see
+// EventContext).
+//
+final class EventHandlerChain
+{
+  private final IEventHandler[] handler;     // Event handlers in chain order
+  private final HandlerMetrics[] metrics;    // Counters for each handler
+  private final LatencyHistogram latency;    // Time spent in the whole chain per batch (null unless timed)
+  private final LatencyHistogram toDrop;     // Time from receive to drop (null unless receive times are recorded)
+  private final String name;                 // Name the handler counters are registered under
+
+  static final String LATENCY = "chain.batch";
+  static final String ENGINE = "engine";     // Name of the engine's chain
+
+  EventHandlerChain(Vector<IEventHandler> eventHandler)
+  {
+    this(eventHandler, false);
+  }
+
+  EventHandlerChain(Vector<IEventHandler> eventHandler, boolean timed)
+  {
+    this(ENGINE, eventHandler, timed);
+  }
+
+  // A chain whose handler counters are registered under the given name,
+  // replacing those of an earlier chain of the same name
+  //
+  EventHandlerChain(String n, Vector<IEventHandler> eventHandler, boolean timed)
+  {
+    name = n;
+    handler = eventHandler.toArray(new IEventHandler[eventHandler.size()]);
+    metrics = MetricsRegistry.handlers(name, handler);
+
+    for (int i = 0; i < handler.length; i++)
+    {
+      if (timed && ownBatch(handler[i]))
+      {
+        metrics[i].batchLatency = new LatencyHistogram();
+      }
+      else if (timed)
+      {
+        metrics[i].latency = new LatencyHistogram();
+      }
+    }
+
+    latency = timed ? MetricsRegistry.latency(LATENCY) : null;
+    toDrop = EventContext.stamping ? MetricsRegistry.latency(EventEngine.RECEIVE_TO_DROP) : null;
+  }
+
+  // Does the handler have a processBatch of its own rather than the
+  // default one event at a time (see IEventHandler)
+  //
+  private static boolean ownBatch(IEventHandler h)
+  {
+    try
+    {
+      return h.getClass().getMethod("processBatch", TECEvent[].class, int.class).getDeclaringClass() != IEventHandler.class;
+    }
+    catch (NoSuchMethodException e)
+    {
+      return false;
+    }
+  }
+
+  // Remove the handler counters from the registry once the chain is no
+  // longer used (tools which build chains of their own)
+  //
+  void unregister()
+  {
+    MetricsRegistry.removeHandlers(name, metrics);
+  }
+
+  int size()
+  {
+    return handler.length;
+  }
+
+  IEventHandler get(int i)
+  {
+    return handler[i];
+  }
+
+  // Flush the handlers which hold on to events (see EventSend.shutdown).
+  // Returns what they had to say about it, one line each.
+  //
+  Vector<String> shutdown(long deadline)
+  {
+    Vector<String> notes = new Vector<String>();
+
+    for (int i = 0; i < handler.length; i++)
+    {
+      if (handler[i] instanceof EventSend)
+      {
+        String note = ((EventSend) handler[i]).shutdown(deadline);
+
+        if (note != null)
+        {
+          notes.add(note);
+        }
+      }
+    }
+
+    return notes;
+  }
+
+  // Pass the first count events of the batch along the chain.  Returns
+  // the number of events which made it to the end of the chain.
+  //
+  int process(TECEvent[] batch, int count)
+  {
+    if (latency != null)
+    {
+      return processTimed(batch, count);
+    }
+
+    final IEventHandler[] h = handler;
+    final HandlerMetrics[] m = metrics;
+
+    for (int i = 0; i < h.length && count > 0; i++)
+    {
+      int left = 0;
+
+      m[i].in.add(count);
+
+      try
+      {
+        left = h[i].processBatch(batch, count);
+      }
+      catch (RuntimeException e)
+      {
+        m[i].error.increment();
+        throw e;
+      }
+
+      m[i].out.add(left);
+      if (left < count)
+      {
+        m[i].dropped.add(count - left);
+
+        if (toDrop != null)
+        {
+          EventContext.current().dropped(batch, left, System.nanoTime(), toDrop);
+        }
+      }
+
+      count = left;
+    }
+
+    return count;
+  }
+
+  private int processTimed(TECEvent[] batch, int count)
+  {
+    final IEventHandler[] h = handler;
+    final HandlerMetrics[] m = metrics;
+    final long start = System.nanoTime();
+    long before = start;
+
+    for (int i = 0; i < h.length && count > 0; i++)
+    {
+      int left = 0;
+
+      m[i].in.add(count);
+
+      try
+      {
+        if (m[i].latency != null)
+        {
+          // One event at a time, as the default processBatch does it,
+          // so that each event is timed on its own
+          //
+          for (int j = 0; j < count; j++)
+          {
+            boolean keep = h[i].processEvent(batch[j]);
+            long after = System.nanoTime();
+
+            m[i].latency.record(after - before);
+            before = after;
+
+            if (keep)
+            {
+              batch[left++] = batch[j];
+            }
+          }
+
+          for (int j = left; j < count; j++)
+          {
+            batch[j] = null;
+          }
+        }
+        else
+        {
+          left = h[i].processBatch(batch, count);
+
+          long after = System.nanoTime();
+
+          m[i].batchLatency.record(after - before);
+          before = after;
+        }
+      }
+      catch (RuntimeException e)
+      {
+        m[i].error.increment();
+        throw e;
+      }
+
+      m[i].out.add(left);
+      if (left < count)
+      {
+        m[i].dropped.add(count - left);
+
+        if (toDrop != null)
+        {
+          EventContext.current().dropped(batch, left, before, toDrop);
+        }
+      }
+
+      count = left;
+    }
+
+    latency.record(before - start);
+
+    return count;
+  }
+}
@@ -0,0 +1,378 @@
+//**********************************************************************
+// cresendo - EventLoad
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.io.FileReader;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import com.tivoli.tec.event_delivery.TECAgent;
+
+// Load generator for sizing cresendo instances (cresendo load).  Sends
+// ITM style events to an instance over EIF at a fixed rate, or at a rate
+// ramping from one figure to another, for a given time.  Host names are
+// drawn from a set of the given size with a few hosts sending most of
+// the events (zipf), and situation names and severities from weighted
+// mixes.
+//
+// With a receiver port the load generator also runs a stand-in TEC
+// server (EventLoadReceiver) which the EventSend handler of the instance
+// is pointed at.  Every second, and once more at the end, it reports the
+// rate events went in and came out and the latency percentiles through
+// the instance, both corrected for coordinated omission and not.
+// Events still missing once the drain time has passed are counted as
+// lost.
+//
+public class EventLoad
+{
+  private static final String DEFAULT_SITUATIONS = "Linux_Process_High_CPU:30,Linux_Swap_Space_Low:10," +
+                                                    "UNIX_Filesystem_Full:20,NT_Disk_Space_Low:15," +
+                                                    "NT_Service_Down:10,ITM_Heartbeat:15";
+  private static final String DEFAULT_SEVERITIES = "WARNING:50,MINOR:25,CRITICAL:15,HARMLESS:8,FATAL:2";
+
+  private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9, 100.0 };
+
+  private String[] host = null;             // Host names, most active first
+  private double[] hostWeight = null;       // Cumulative zipf weights of the host names
+  private String[] situation = null;
+  private double[] situationWeight = null;  // Cumulative weights of the situation names
+  private String[] severity = null;
+  private double[] severityWeight = null;   // Cumulative weights of the severities
+  private Random random = null;
+  private StringBuilder sb = new StringBuilder(512);
+
+  EventLoad(int hosts, String situations, String severities, long seed)
+  {
+    host = new String[hosts];
+    hostWeight = new double[hosts];
+
+    double sum = 0.0;
+
+    for (int i = 0; i < hosts; i++)
+    {
+      host[i] = String.format("serv%04d", i);
+      sum += 1.0 / (i + 1);
+      hostWeight[i] = sum;
+    }
+
+    String[] s = situations.split("[,]");
+    situation = new String[s.length];
+    situationWeight = weights(s, situation);
+
+    s = severities.split("[,]");
+    severity = new String[s.length];
+    severityWeight = weights(s, severity);
+
+    random = new Random(seed);
+  }
+
+  // Split name:weight pairs into names and cumulative weights
+  //
+  private static double[] weights(String[] pair, String[] name)
+  {
+    double[] w = new double[pair.length];
+    double sum = 0.0;
+
+    for (int i = 0; i < pair.length; i++)
+    {
+      int colon = pair[i].indexOf(':');
+
+      name[i] = (colon < 0) ? pair[i] : pair[i].substring(0, colon);
+      sum += (colon < 0) ? 1.0 : Double.parseDouble(pair[i].substring(colon + 1));
+      w[i] = sum;
+    }
+
+    return w;
+  }
+
+  private int pick(double[] w)
+  {
+    double r = random.nextDouble() * w[w.length - 1];
+    int lo = 0;
+    int hi = w.length - 1;
+
+    while (lo < hi)
+    {
+      int mid = (lo + hi) >>> 1;
+
+      if (w[mid] <= r)
+      {
+        lo = mid + 1;
+      }
+      else
+      {
+        hi = mid;
+      }
+    }
+
+    return lo;
+  }
+
+  // The next event.  due is when it should be sent and sent when it is.
+  //
+  String event(long seq, long due, long sent)
+  {
+    String h = host[pick(hostWeight)];
+    String sit = situation[pick(situationWeight)];
+
+    sb.setLength(0);
+    sb.append("ITM_").append(sit)
+      .append(";source='ITM';sub_source='").append(h).append(":LZ'")
+      .append(";hostname='").append(h).append(".example.com'")
+      .append(";origin='10.").append(seq % 250).append(".0.1'")
+      .append(";situation_name='").append(sit).append("'")
+      .append(";situation_origin='").append(h).append(":LZ'")
+      .append(";situation_status='Y'")
+      .append(";severity=").append(severity[pick(severityWeight)])
+      .append(";msg='Load event ").append(seq).append(" from ").append(h).append("'")
+      .append(";load_seq=").append(seq)
+      .append(";load_time=").append(due)
+      .append(";load_sent=").append(sent)
+      .append(";END");
+
+    return sb.toString();
+  }
+
+  private static String millis(long nanos)
+  {
+    return String.format("%.3f", nanos / 1000000.0);
+  }
+
+  private static String percentiles(LatencyHistogram h, boolean cumulative)
+  {
+    StringBuilder s = new StringBuilder();
+
+    for (int i = 0; i < PERCENTILES.length; i++)
+    {
+      double p = PERCENTILES[i];
+
+      s.append((i == 0) ? "" : " ").append((p == 100.0) ? "max" : (p == Math.rint(p)) ? "p" + (int) p : "p" + p)
+        .append(" '").append(millis(h.percentile(cumulative, PERCENTILES[i]))).append("'");
+    }
+
+    return s.append(" ms").toString();
+  }
+
+  private static int intOption(CommandLine cl, String o, int d)
+  {
+    return cl.hasOption(o) ? Integer.parseInt(cl.getOptionValue(o)) : d;
+  }
+
+  public static void main(String[] args)
+  {
+    Options opts = new Options();
+    HelpFormatter hf = new HelpFormatter();
+    CommandLine cl = null;
+
+    opts.addOption("h", "help", false, "Command line arguments help");
+    opts.addOption("f", "config file", true, "Path to eif sender config file of the instance (eg <instance>.postemsg)");
+    opts.addOption("r", "rate", true, "Events per second (default 100)");
+    opts.addOption("R", "ramp to", true, "Events per second at the end, ramping linearly from the rate");
+    opts.addOption("d", "duration", true, "Seconds to send events for (default 60)");
+    opts.addOption("w", "warm up", true, "Seconds at the start left out of the results (default 5)");
+    opts.addOption("t", "drain", true, "Seconds to wait for events still in flight at the end (default 10)");
+    opts.addOption("p", "receiver port", true, "Port for the stand-in TEC server (default none)");
+    opts.addOption("H", "hosts", true, "Number of distinct host names (default 200)");
+    opts.addOption("S", "situations", true, "Situation mix as name:weight,... (default " + DEFAULT_SITUATIONS + ")");
+    opts.addOption("V", "severities", true, "Severity mix as name:weight,... (default " + DEFAULT_SEVERITIES + ")");
+    opts.addOption("s", "seed", true, "Random seed (default 1)");
+
+    opts.getOption("f").setRequired(true);
+
+    int rate = 0;
+    int rampTo = 0;
+    int duration = 0;
+    int warmUp = 0;
+    int drain = 0;
+    int port = 0;
+    EventLoad load = null;
+
+    try
+    {
+      cl = new BasicParser().parse(opts, args);
+
+      if (cl.hasOption('h'))
+      {
+        hf.printHelp("Options", opts);
+        System.exit(0);
+      }
+
+      rate = intOption(cl, "r", 100);
+      rampTo = intOption(cl, "R", rate);
+      duration = intOption(cl, "d", 60);
+      warmUp = intOption(cl, "w", 5);
+      drain = intOption(cl, "t", 10);
+      port = intOption(cl, "p", 0);
+
+      load = new EventLoad(intOption(cl, "H", 200),
+                           cl.hasOption("S") ? cl.getOptionValue("S") : DEFAULT_SITUATIONS,
+                           cl.hasOption("V") ? cl.getOptionValue("V") : DEFAULT_SEVERITIES,
+                           intOption(cl, "s", 1));
+    }
+    catch (ParseException e)
+    {
+      hf.printHelp(e.toString(), opts);
+      System.exit(1);
+    }
+    catch (NumberFormatException e)
+    {
+      hf.printHelp("Options should be whole numbers: " + e.getMessage(), opts);
+      System.exit(1);
+    }
+
+    if (rate <= 0 || rampTo <= 0 || duration <= 0 || warmUp >= duration)
+    {
+      hf.printHelp("The rates and duration should be greater than zero and the warm up less than the duration", opts);
+      System.exit(1);
+    }
+
+    TECAgent sender = null;
+    EventLoadReceiver receiver = null;
+
+    try
+    {
+      if (port > 0)
+      {
+        receiver = new EventLoadReceiver(port);
+      }
+
+      sender = new TECAgent(new FileReader(cl.getOptionValue("f")), TECAgent.SENDER_MODE, false);
+    }
+    catch (Exception e)
+    {
+      System.err.println("Error: " + e.toString());
+      System.exit(1);
+    }
+
+    System.out.println("\n  Sending events at '" + rate + ((rampTo != rate) ? "' to '" + rampTo : "") +
+                       "' a second for '" + duration + "' seconds (the first '" + warmUp + "' are warm up)\n");
+
+    // Events are sent when they are due.  A send which takes longer than
+    // the gap between events makes the following events late, they are
+    // then sent as quickly as possible until the generator catches up.
+    //
+    long start = System.nanoTime();
+    long end = start + duration * 1000000000L;
+    long measureFrom = start + warmUp * 1000000000L;
+    long nextReport = start + 1000000000L;
+    long due = start;
+    long seq = 0;
+    long sent = 0;             // Events sent in the measured period
+    long failed = 0;           // Events the TECAgent failed to send in the measured period
+    long lastSent = 0;
+    long lastReceived = 0;
+
+    if (receiver != null)
+    {
+      receiver.setMeasureFrom(measureFrom);
+    }
+
+    while (due < end)
+    {
+      long now = System.nanoTime();
+
+      while (now < due)
+      {
+        LockSupport.parkNanos(due - now);
+        now = System.nanoTime();
+      }
+
+      int rc = sender.sendEvent(load.event(seq, due, now));
+
+      if (due >= measureFrom)
+      {
+        if (rc == -1)
+        {
+          failed++;
+        }
+        else
+        {
+          sent++;
+        }
+      }
+
+      seq++;
+
+      double r = rate + (rampTo - rate) * (double) (due - start) / (end - start);
+      due += (long) (1000000000.0 / r);
+
+      if (now >= nextReport)
+      {
+        long received = (receiver == null) ? 0 : receiver.received();
+        String line = String.format("  %4ds  sent '%d' a second", (now - start) / 1000000000L, sent - lastSent);
+
+        if (receiver != null)
+        {
+          receiver.corrected.roll();
+          line += String.format("  received '%d' a second  ", received - lastReceived) +
+                  percentiles(receiver.corrected, false);
+        }
+
+        System.out.println(line);
+
+        lastSent = sent;
+        lastReceived = received;
+        nextReport += 1000000000L;
+      }
+    }
+
+    long sendTime = System.nanoTime() - measureFrom;
+
+    System.out.println("\n  Sent '" + sent + "' events in '" + (duration - warmUp) + "' seconds, '" +
+                       String.format("%.1f", sent * 1e9 / sendTime) + "' a second, '" + failed + "' failed");
+
+    if (receiver != null)
+    {
+      // Give the instance time to send what it still has
+      //
+      long wait = System.nanoTime() + drain * 1000000000L;
+
+      while (receiver.received() < sent && System.nanoTime() < wait)
+      {
+        LockSupport.parkNanos(100000000L);
+      }
+
+      receiver.corrected.roll();
+      receiver.uncorrected.roll();
+
+      long received = receiver.received();
+
+      synchronized (receiver)
+      {
+        System.out.println("  Received '" + received + "' events, '" + Math.max(sent - received, 0) + "' lost, '" +
+                           receiver.duplicates + "' duplicates, '" + receiver.foreign + "' without load attributes");
+      }
+
+      System.out.println("  Sustained '" + String.format("%.1f", received * 1e9 / sendTime) + "' events a second");
+      System.out.println("\n  Latency corrected for coordinated omission:\n    " + percentiles(receiver.corrected, true));
+      System.out.println("  Latency uncorrected:\n    " + percentiles(receiver.uncorrected, true));
+
+      receiver.close();
+    }
+
+    sender.disconnect();
+    System.exit(0);
+  }
+}
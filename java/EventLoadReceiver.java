@@ -0,0 +1,147 @@
+//**********************************************************************
+// cresendo - EventLoadReceiver
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.util.BitSet;
+import java.io.StringReader;
+import com.ibm.logging.MessageLogger;
+import com.ibm.logging.TraceLogger;
+import com.tivoli.tec.event_delivery.IEventProcessing;
+import com.tivoli.tec.event_delivery.TECAgent;
+import com.tivoli.tec.event_delivery.TECEvent;
+
+// Stand-in TEC server for EventLoad.  Listens on a port of its own so
+// that the EventSend handler of the instance under load can be pointed
+// at it, and works out for each event it receives how long it took to
+// get through the instance from the load_time and load_sent attributes
+// set by EventLoad (both System.nanoTime of the EventLoad process, which
+// is also this process).
+//
+// load_time is when the event should have been sent according to the
+// rate and load_sent when it actually was.  Measuring from load_time
+// means that time the generator spent held up by a slow instance counts
+// against the instance (ie the percentiles are corrected for coordinated
+// omission).  Measuring from load_sent gives the uncorrected figures.
+//
+class EventLoadReceiver implements IEventProcessing
+{
+  private TECAgent agent = null;             // Receiver TECAgent object
+  private MessageLogger msg = null;          // Loggers for TECEvent.convert
+  private TraceLogger trc = null;
+  private BitSet seen = new BitSet();        // Sequence numbers of the events received
+  private volatile long measureFrom = Long.MAX_VALUE;   // Events due before this are warm up (System.nanoTime)
+
+  final LatencyHistogram corrected = new LatencyHistogram();    // From when each event was due
+  final LatencyHistogram uncorrected = new LatencyHistogram();  // From when each event was sent
+  long received = 0;                         // Events received in the measured period (synchronized)
+  long duplicates = 0;                       // Events received more than once (synchronized)
+  long foreign = 0;                          // Events without load attributes (synchronized)
+
+  EventLoadReceiver(int port) throws Exception
+  {
+    msg = new MessageLogger("cresendo", "load message log");
+    trc = new TraceLogger("cresendo", "load trace log");
+    trc.setLogging(false);
+
+    agent = new TECAgent(new StringReader("ServerPort=" + port + "\n"), TECAgent.RECEIVER_MODE, false);
+    agent.registerListener(this);
+  }
+
+  void setMeasureFrom(long t)
+  {
+    measureFrom = t;
+  }
+
+  public boolean onMessage(String events)
+  {
+    long now = System.nanoTime();
+    TECEvent[] tea = TECEvent.convert(events, msg, trc);
+
+    for (int i = 0; tea != null && i < tea.length; i++)
+    {
+      long seq = number(tea[i].getSlot("load_seq"));
+      long due = number(tea[i].getSlot("load_time"));
+      long sent = number(tea[i].getSlot("load_sent"));
+
+      if (seq < 0 || due < 0 || sent < 0)
+      {
+        synchronized (this)
+        {
+          foreign++;
+        }
+        continue;
+      }
+
+      if (due < measureFrom)
+      {
+        continue;
+      }
+
+      synchronized (this)
+      {
+        if (seen.get((int) seq))
+        {
+          duplicates++;
+          continue;
+        }
+
+        seen.set((int) seq);
+        received++;
+      }
+
+      corrected.record(now - due);
+      uncorrected.record(now - sent);
+    }
+
+    return true;
+  }
+
+  synchronized long received()
+  {
+    return received;
+  }
+
+  void close()
+  {
+    agent.disconnect();
+  }
+
+  // Value of a numeric attribute, quoted or not, or -1
+  //
+  private static long number(String v)
+  {
+    v = SlotValue.unquote(v);
+
+    if (v == null || v.length() == 0)
+    {
+      return -1;
+    }
+
+    try
+    {
+      return Long.parseLong(v);
+    }
+    catch (NumberFormatException e)
+    {
+      return -1;
+    }
+  }
+}
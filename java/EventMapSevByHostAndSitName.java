@@ -20,11 +20,13 @@
 //***********************************************************************
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
 import com.tivoli.tec.event_delivery.TECEvent;
 import com.ibm.logging.Logger;
 import com.ibm.logging.LogRecord;
 
-public class EventMapSevByHostAndSitName implements IEventHandler
+public class EventMapSevByHostAndSitName implements IEventHandler, IReloadable
 {
   // Note that the itm6 informational severity appears
   // to be mapped to harmless by itm6 when a corresponding
@@ -39,14 +41,25 @@ public class EventMapSevByHostAndSitName implements IEventHandler
                                "unknown"
                              };
 
+  private String [] sevName = {                  // tecSev as set on events
+                                "FATAL",
+                                "CRITICAL",
+                                "MINOR",
+                                "WARNING",
+                                "HARMLESS",
+                                "UNKNOWN"
+                              };
+
   private File mapDir = null;               // Map directory
-  private LogRecord msg = null;             // Message record
-  private LogRecord trc = null;             // Trace record
+  private volatile HashMap<String, HashMap<String, Integer>> sevMap = null;   // host -> situation -> index into tecSev
+  private ThreadLocalRecord msgRecord = null;   // Message record (one per engine thread)
+
+  static final String MAPPED = "EventMapSevByHostAndSitName.mapped";
+  private static final LongAdder mapped = MetricsRegistry.counter(MAPPED);   // Events where severity has been remapped based on situation and host name
 
   private void initMsgAndTrcRecord()
   {
-    msg = new LogRecord(LogRecord.TYPE_WARN, "EventMapSevByHostAndSitName", "processEvent", "", "", "", "", "");
-    trc = new LogRecord(LogRecord.TYPE_ENTRY, "EventMapSevByHostAndSitName", "processEvent", "", "", "", "", "");
+    msgRecord = new ThreadLocalRecord(LogRecord.TYPE_WARN, "EventMapSevByHostAndSitName");
   }
 
   private void stdErr(String m)
@@ -57,6 +70,11 @@ public class EventMapSevByHostAndSitName implements IEventHandler
   }
 
   public EventMapSevByHostAndSitName(String d) throws Exception
+  {
+    this(d, 60);
+  }
+
+  public EventMapSevByHostAndSitName(String d, int rescan) throws Exception
   {
     File baseDir = new File(d);
 
@@ -123,194 +141,205 @@ public class EventMapSevByHostAndSitName implements IEventHandler
         stdErr("Exception: " + e.getMessage());
       }
     }
+
+    // Keep the map directory tree in memory so that events never have to
+    // touch the filesystem.  Operators still manage mappings by touching
+    // and removing files, the watcher picks up the changes.
+    //
+    reload();
+    DirectoryWatcher.watch(mapDir, this, rescan * 1000L);
   }
 
-  public boolean processEvent(TECEvent ev)
+  // Reread the map directory tree and swap in the new map.  Severity
+  // directories are read from highest to lowest so the first severity
+  // recorded for a host and situation is the one which wins, the same as
+  // searching the directories in that order.
+  //
+  public void reload()
   {
-    // Clear previous text in messaage and trace records
-    //
-    msg.setText("");
-    trc.setText("");
+    HashMap<String, HashMap<String, Integer>> map = new HashMap<String, HashMap<String, Integer>>();
 
-    if (Cresendo.trcLogger.isLogging)
+    for (int i = 0; i < tecSev.length ; i++)
     {
-      trc.setText("Received event -----> \n  " + ev.toString() );
-    }
+      File sevDir = new File(mapDir, tecSev[i]);        // eg var/MapSevByHostAndSitName/fatal
+      String[] host = sevDir.list();
 
-    // Retrieve the value of the hostname attribute from the event
-    //
-    String fqhost = ev.getSlot("hostname");
-
-    // Check hostname attribute is not null or empty
-    //
-    if (fqhost == null || fqhost.length() == 0)
-    {
-      if (Cresendo.trcLogger.isLogging)
+      for (int j = 0; host != null && j < host.length; j++)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  BAILING as value of hostname attribute is null or string length is zero \n");
-        Cresendo.trcLogger.log(trc);
-      }
-      return true;    // Allow event handlers to continue processing event
-    }
+        String[] sit = new File(sevDir, host[j]).list();  // eg var/MapSevByHostAndSitName/fatal/serv01
 
-    // Strip any quotes
-    //
-    fqhost = fqhost.replaceAll("[\'\"]", "");
-    if (Cresendo.trcLogger.isLogging)
-    {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Removed any single or double quotes from value of hostname attribute\n");
-      Cresendo.trcLogger.log(trc);
-    }
+        if (sit == null)
+        {
+          continue;     // Not a directory
+        }
 
-    // Check hostname attribute is not null or empty
-    //
-    if (fqhost == null || fqhost.length() == 0 || fqhost.matches("^\\s*$"))
-    {
-      if (Cresendo.trcLogger.isLogging)
-      {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  BAILING as value of hostname attribute is empty after removal of quotes \n");
-        Cresendo.trcLogger.log(trc);
-      }
-      return true;    // Allow event handlers to continue processing event
-    }
-    
-    // Strip off domain name (ie everthing after and including first dot character)
-    //
-    String host = null;
-    int idot = fqhost.indexOf('.');
-    if (idot >= 0)                         // A dot was found in the host name
-    {
-      if (Cresendo.trcLogger.isLogging)
-      {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  Dot character found in hostname  -----> '" + fqhost  + "'\n");
-      }
+        HashMap<String, Integer> sitMap = map.get(host[j]);
 
-      host = fqhost.substring(0, idot);    // Strip domain name 
-      if (Cresendo.trcLogger.isLogging)
-      {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  Stripped domain name from hostname  -----> '" + host + "'\n");
+        if (sitMap == null)
+        {
+          sitMap = new HashMap<String, Integer>();
+          map.put(host[j], sitMap);
+        }
+
+        for (int k = 0; k < sit.length; k++)
+        {
+          if (! sitMap.containsKey(sit[k]))
+          {
+            sitMap.put(sit[k], i);
+          }
+        }
       }
     }
-    else
+
+    sevMap = map;
+  }
+
+  // Returns the index into tecSev of the severity to map to or -1 if
+  // there is no mapping for the host and situation
+  //
+  private int lookup(String host, String sitName)
+  {
+    HashMap<String, Integer> sitMap = sevMap.get(host);
+
+    if (sitMap == null)
     {
-      host = fqhost;
+      return -1;
     }
 
-    host = host.toLowerCase();   // Convert host name to lower case
+    Integer sev = sitMap.get(sitName);
+    return (sev == null) ? -1 : sev;
+  }
+
+  public boolean processEvent(TECEvent ev)
+  {
+    TraceBuffer trc = TraceBuffer.begin("EventMapSevByHostAndSitName", ev);   // null unless tracing
 
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Converted hostname to lower case -----> '" + host + "'\n");
+      trc.append("Received event -----> \n  ").event();
     }
 
-    // Now get the value of the situation name attribute
+    // Short host name (quotes and domain removed, lower case), worked out
+    // once per event however many handlers ask for it
     //
-    String sitName = ev.getSlot("situation_name");
+    String host = EventContext.current().host(ev);
 
-    // Check attribute is not null or empty
-    //
-    if (sitName == null || sitName.length() == 0)
+    if (host == null)
     {
-      if (Cresendo.trcLogger.isLogging)
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  BAILING as value of situation_name attribute is null or string length is zero \n");
-        Cresendo.trcLogger.log(trc);
+        trc.append("\n  BAILING as hostname attribute has no usable value -----> '")
+          .append(ev.getSlot("hostname")).append("'\n");
+        trc.log();
       }
       return true;    // Allow event handlers to continue processing event
     }
 
-    // Strip any quotes
-    //
-    sitName = sitName.replaceAll("[\'\"]", "");
-    
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Removed any single or double quotes from value of situation_name attribute\n");
-      Cresendo.trcLogger.log(trc);
+      trc.append("\n  Short host name from hostname attribute -----> '").append(host).append("'\n");
     }
 
-    // Check attribute is not null or empty
+    // Situation name with quotes removed, worked out once per event
     //
-    if (sitName == null || sitName.length() == 0 || sitName.matches("^\\s*$"))
+    String sitName = EventContext.current().situation(ev);
+
+    if (sitName == null)
     {
-      if (Cresendo.trcLogger.isLogging)
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  BAILING as value of situation_name attribute is empty after removal of quotes \n");
-        Cresendo.trcLogger.log(trc);
+        trc.append("\n  BAILING as situation_name attribute has no usable value -----> '")
+          .append(ev.getSlot("situation_name")).append("'\n");
+        trc.log();
       }
       return true;    // Allow event handlers to continue processing event
     }
 
-    // Check to see if event severity should be remapped based on the situation
-    // name and host name.  This search starts from highest to lowest severity
-    // and stops as soon as the first match is found.
-    //
-    for (int i = 0; i < tecSev.length ; i++)
+    if (trc != null)
     {
-      try
-      {
-        File sevDir = new File(mapDir, tecSev[i]);  // eg var/MapSevByHostAndSitName/fatal
-        File hostDir = new File(sevDir, host);      // eg var/MapSevByHostAndSitName/fatal/serv01
-        File sevMap = new File(hostDir, sitName);   // eg var/MapSevByHostAndSitName/fatal/serv01/MemLow
-
-        if (Cresendo.trcLogger.isLogging)
-        {
-          String tmpText = trc.getText();
-          trc.setText(tmpText + "\n  Testing if map file exists '" + sevMap.getPath() + "'\n" );  
-        }
+      trc.append("\n  Situation name from situation_name attribute -----> '").append(sitName).append("'\n");
+    }
 
-        if (sevMap.exists())      // If the map file exists
-        {
-          StatusLogger.mapSevByHostAndSitName++;
+    // Check to see if event severity should be remapped based on the host and situation name.
+    // The map directory is held in memory with only the highest severity for
+    // each host and situation name so this is a single lookup.
+    //
+    int sev = lookup(host, sitName);
 
-          if (Cresendo.trcLogger.isLogging)
-          {
-            String tmpText = trc.getText();
-            trc.setText(tmpText + "\n  Found map file '" + sevMap.getPath() + "'\n" +
-                                  "\n  Setting event severity to '" + tecSev[i].toUpperCase() + "'\n");
-          }
+    if (trc != null)
+    {
+      trc.append("\n  Looking up map files in '").append(mapDir.getPath()).append("'\n");
+    }
 
-          if (! ev.setSlot("severity", tecSev[i].toUpperCase()))     // Then set the severity of the event
-          {
-            if (Cresendo.trcLogger.isLogging)
-            {
-              String tmpText = trc.getText();
-              trc.setText(tmpText + "\n  Unable to map severity of event to '" +
-                          tecSev[i].toUpperCase() + "' -----> " + ev.toString());
-            }
-          }
+    if (sev >= 0)      // If a map file exists
+    {
+      mapped.increment();
 
-          break;  // Break as soon as a map file is found
-        }
+      if (trc != null)
+      {
+        trc.append("\n  Found map file '").append(mapDir.getPath()).append(Cresendo.dirSep)
+          .append(tecSev[sev]).append(Cresendo.dirSep).append(host).append(Cresendo.dirSep).append(sitName)
+          .append("'\n\n  Setting event severity to '").append(sevName[sev]).append("'\n");
+        trc.changed();
       }
-      catch (Exception e)
+
+      if (! ev.setSlot("severity", sevName[sev]))     // Then set the severity of the event
       {
-        if (Cresendo.trcLogger.isLogging)
+        if (trc != null)
         {
-          String tmpText = trc.getText();
-          trc.setText(tmpText + "\n  Exception -----> \n  " + e.getMessage());
+          trc.append("\n  Unable to map severity of event to '").append(sevName[sev])
+            .append("' -----> ").event();
         }
       }
     }
 
     // Write trace file
     //
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Passing event to next handler -----> \n  " + ev.toString());
-      Cresendo.trcLogger.log(trc);
+      trc.append("\n  Passing event to next handler -----> \n  ").event();
+      trc.log();
     }
 
     return true;    // Allow event handlers to continue processing event
   }
+
+  // Events in a batch often come from the same host and situation, so the
+  // severity found for the last pair is reused while neither changes
+  //
+  public int processBatch(TECEvent[] batch, int count)
+  {
+    // With tracing on each event needs its own trace record
+    //
+    if (TraceBuffer.active())
+    {
+      return IEventHandler.super.processBatch(batch, count);
+    }
+
+    EventContext ctx = EventContext.current();
+    String lastHost = null;      // Short host name last looked up
+    String lastSit = null;       // Situation name last looked up
+    int sev = -1;                // Index into tecSev of the last match (-1 for none)
+
+    for (int i = 0; i < count; i++)
+    {
+      String host = ctx.host(batch[i]);
+      String sit = ctx.situation(batch[i]);
+
+      if (host != lastHost || sit != lastSit)
+      {
+        sev = (host == null || sit == null) ? -1 : lookup(host, sit);
+        lastHost = host;
+        lastSit = sit;
+      }
+
+      if (sev >= 0)
+      {
+        mapped.increment();
+        batch[i].setSlot("severity", sevName[sev]);
+      }
+    }
+
+    return count;    // Allow event handlers to continue processing events
+  }
 }
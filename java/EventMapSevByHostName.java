@@ -20,11 +20,13 @@
 //***********************************************************************
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
 import com.tivoli.tec.event_delivery.TECEvent;
 import com.ibm.logging.Logger;
 import com.ibm.logging.LogRecord;
 
-public class EventMapSevByHostName implements IEventHandler
+public class EventMapSevByHostName implements IEventHandler, IReloadable
 {
   // Note that the itm6 informational severity appears
   // to be mapped to harmless by itm6 when a corresponding
@@ -39,14 +41,25 @@ public class EventMapSevByHostName implements IEventHandler
                                "unknown"
                              };
 
+  private String [] sevName = {                  // tecSev as set on events
+                                "FATAL",
+                                "CRITICAL",
+                                "MINOR",
+                                "WARNING",
+                                "HARMLESS",
+                                "UNKNOWN"
+                              };
+
   private File mapDir = null;               // Map directory
-  private LogRecord msg = null;             // Message record
-  private LogRecord trc = null;             // Trace record
+  private volatile HashMap<String, Integer> sevMap = null;   // host -> index into tecSev
+  private ThreadLocalRecord msgRecord = null;   // Message record (one per engine thread)
+
+  static final String MAPPED = "EventMapSevByHostName.mapped";
+  private static final LongAdder mapped = MetricsRegistry.counter(MAPPED);   // Events where severity has been remapped based on host name
 
   private void initMsgAndTrcRecord()
   {
-    msg = new LogRecord(LogRecord.TYPE_WARN, "EventMapSevByHostName", "processEvent", "", "", "", "", "");
-    trc = new LogRecord(LogRecord.TYPE_ENTRY, "EventMapSevByHostName", "processEvent", "", "", "", "", "");
+    msgRecord = new ThreadLocalRecord(LogRecord.TYPE_WARN, "EventMapSevByHostName");
   }
 
   private void stdErr(String m)
@@ -57,6 +70,11 @@ public class EventMapSevByHostName implements IEventHandler
   }
 
   public EventMapSevByHostName(String d) throws Exception
+  {
+    this(d, 60);
+  }
+
+  public EventMapSevByHostName(String d, int rescan) throws Exception
   {
     File baseDir = new File(d);
 
@@ -126,152 +144,156 @@ public class EventMapSevByHostName implements IEventHandler
       }
     }
 
+    // Keep the map directory tree in memory so that events never have to
+    // touch the filesystem.  Operators still manage mappings by touching
+    // and removing files, the watcher picks up the changes.
+    //
+    reload();
+    DirectoryWatcher.watch(mapDir, this, rescan * 1000L);
+  }
+
+  // Reread the map directory tree and swap in the new map.  Severity
+  // directories are read from highest to lowest so the first severity
+  // recorded for a host name is the one which wins, the same as searching the
+  // directories in that order.
+  //
+  public void reload()
+  {
+    HashMap<String, Integer> map = new HashMap<String, Integer>();
+
+    for (int i = 0; i < tecSev.length ; i++)
+    {
+      String[] name = new File(mapDir, tecSev[i]).list();   // eg var/MapSevByHostName/fatal
+
+      for (int j = 0; name != null && j < name.length; j++)
+      {
+        if (! map.containsKey(name[j]))
+        {
+          map.put(name[j], i);
+        }
+      }
+    }
+
+    sevMap = map;
+  }
+
+  // Returns the index into tecSev of the severity to map to or -1 if
+  // there is no mapping for the host name
+  //
+  private int lookup(String host)
+  {
+    Integer sev = sevMap.get(host);
+    return (sev == null) ? -1 : sev;
   }
 
   public boolean processEvent(TECEvent ev)
   {
-    // Clear previous text in messaage and trace records
-    //
-    msg.setText("");
-    trc.setText("");
+    TraceBuffer trc = TraceBuffer.begin("EventMapSevByHostName", ev);   // null unless tracing
 
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      trc.setText("Received event -----> \n  " + ev.toString() );
+      trc.append("Received event -----> \n  ").event();
     }
 
-    // Retrieve the value of the hostname attribute from the event
+    // Short host name (quotes and domain removed, lower case), worked out
+    // once per event however many handlers ask for it
     //
-    String fqhost = ev.getSlot("hostname");
+    String host = EventContext.current().host(ev);
 
-    // Check hostname attribute is not null or empty
-    //
-    if (fqhost == null || fqhost.length() == 0)
+    if (host == null)
     {
-      if (Cresendo.trcLogger.isLogging)
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  BAILING as value of hostname attribute is null or string length is zero \n");
-        Cresendo.trcLogger.log(trc);
+        trc.append("\n  BAILING as hostname attribute has no usable value -----> '")
+          .append(ev.getSlot("hostname")).append("'\n");
+        trc.log();
       }
       return true;    // Allow event handlers to continue processing event
     }
 
-    // Strip any quotes
-    //
-    fqhost = fqhost.replaceAll("[\'\"]", "");
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Removed any single or double quotes from value of hostname attribute\n");
-      Cresendo.trcLogger.log(trc);
+      trc.append("\n  Short host name from hostname attribute -----> '").append(host).append("'\n");
     }
 
-    // Check hostname attribute is not null or empty
+    // Check to see if event severity should be remapped based on the host name.
+    // The map directory is held in memory with only the highest severity for
+    // each host name so this is a single lookup.
     //
-    if (fqhost == null || fqhost.length() == 0 || fqhost.matches("^\\s*$"))
+    int sev = lookup(host);
+
+    if (trc != null)
     {
-      if (Cresendo.trcLogger.isLogging)
-      {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  BAILING as value of hostname attribute is empty after removal of quotes \n");
-        Cresendo.trcLogger.log(trc);
-      }
-      return true;    // Allow event handlers to continue processing event
+      trc.append("\n  Looking up map files in '").append(mapDir.getPath()).append("'\n");
     }
-    
-    // Strip off domain name (ie everthing after and including first dot character)
-    //
-    String host = null;
-    int idot = fqhost.indexOf('.');
-    if (idot >= 0)                         // A dot was found in the host name
+
+    if (sev >= 0)      // If a map file exists
     {
-      if (Cresendo.trcLogger.isLogging)
+      mapped.increment();
+
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  Dot character found in hostname  -----> '" + fqhost  + "'\n");
+        trc.append("\n  Found host map file '").append(mapDir.getPath()).append(Cresendo.dirSep)
+          .append(tecSev[sev]).append(Cresendo.dirSep).append(host)
+          .append("'\n\n  Setting event severity to '").append(sevName[sev]).append("'\n");
+        trc.changed();
       }
 
-      host = fqhost.substring(0, idot);    // Strip domain name 
-      if (Cresendo.trcLogger.isLogging)
+      if (! ev.setSlot("severity", sevName[sev]))     // Then set the severity of the event
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  Stripped domain name from hostname  -----> '" + host + "'\n");
+        if (trc != null)
+        {
+          trc.append("\n  Unable to map severity of event to '").append(sevName[sev])
+            .append("' -----> ").event();
+        }
       }
     }
-    else
-    {
-      host = fqhost;
-    }
-
-    host = host.toLowerCase();   // Convert host name to lower case
 
-    if (Cresendo.trcLogger.isLogging)
+    // Write trace file
+    //
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Converted hostname to lower case -----> '" + host + "'\n");
+      trc.append("\n  Passing event to next handler -----> \n  ").event();
+      trc.log();
     }
 
-    // Check to see if event severity should be remapped based on the host name.
-    // This starts from highest to lowest severity and stops searching as soon
-    // as the first matching host name is found.
+    return true;    // Allow event handlers to continue processing event
+  }
+
+  // Events in a batch often come from the same host, so the severity found
+  // for the last short host name (see EventContext) is reused while it
+  // stays the same
+  //
+  public int processBatch(TECEvent[] batch, int count)
+  {
+    // With tracing on each event needs its own trace record
     //
-    for (int i = 0; i < tecSev.length ; i++)
+    if (TraceBuffer.active())
     {
-      try
-      {
-        File sevDir = new File(mapDir, tecSev[i]);
-        File hostMap = new File(sevDir, host);
-
-        if (Cresendo.trcLogger.isLogging)
-        {
-          String tmpText = trc.getText();
-          trc.setText(tmpText + "\n  Testing if map file exists '" + hostMap.getPath() + "'\n" );  
-        }
-
-        if (hostMap.exists())      // If the host map file exists
-        {
-          StatusLogger.mapSevByHostName++;
+      return IEventHandler.super.processBatch(batch, count);
+    }
 
-          if (Cresendo.trcLogger.isLogging)
-          {
-            String tmpText = trc.getText();
-            trc.setText(tmpText + "\n  Found host map file '" + hostMap.getPath() + "'\n" +
-                                  "\n  Setting event severity to '" + tecSev[i].toUpperCase() + "'\n");
-          }
+    EventContext ctx = EventContext.current();
+    String lastHost = null;      // Short host name last looked up
+    int sev = -1;                // Index into tecSev of the last match (-1 for none)
 
-          if (! ev.setSlot("severity", tecSev[i].toUpperCase()))     // Then set the severity of the event
-          {
-            if (Cresendo.trcLogger.isLogging)
-            {
-              String tmpText = trc.getText();
-              trc.setText(tmpText + "\n  Unable to map severity of event to '" +
-                          tecSev[i].toUpperCase() + "' -----> " + ev.toString());
-            }
-          }
+    for (int i = 0; i < count; i++)
+    {
+      String host = ctx.host(batch[i]);
 
-          break;  // Break as soon as a host map file is found
-        }
-      }
-      catch (Exception e)
+      if (host != lastHost)
       {
-        if (Cresendo.trcLogger.isLogging)
-        {
-          String tmpText = trc.getText();
-          trc.setText(tmpText + "\n  Exception -----> \n  " + e.getMessage());
-        }
+        sev = (host == null) ? -1 : lookup(host);
+        lastHost = host;
       }
-    }
 
-    // Write trace file
-    //
-    if (Cresendo.trcLogger.isLogging)
-    {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Passing event to next handler -----> \n  " + ev.toString());
-      Cresendo.trcLogger.log(trc);
+      if (sev >= 0)
+      {
+        mapped.increment();
+        batch[i].setSlot("severity", sevName[sev]);
+      }
     }
 
-    return true;    // Allow event handlers to continue processing event
+    return count;    // Allow event handlers to continue processing events
   }
 }
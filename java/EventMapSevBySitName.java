@@ -20,11 +20,13 @@
 //***********************************************************************
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
 import com.tivoli.tec.event_delivery.TECEvent;
 import com.ibm.logging.Logger;
 import com.ibm.logging.LogRecord;
 
-public class EventMapSevBySitName implements IEventHandler
+public class EventMapSevBySitName implements IEventHandler, IReloadable
 {
   // Note that the itm6 informational severity appears
   // to be mapped to harmless by itm6 when a corresponding
@@ -39,14 +41,25 @@ public class EventMapSevBySitName implements IEventHandler
                                "unknown"
                              };
 
+  private String [] sevName = {                  // tecSev as set on events
+                                "FATAL",
+                                "CRITICAL",
+                                "MINOR",
+                                "WARNING",
+                                "HARMLESS",
+                                "UNKNOWN"
+                              };
+
   private File mapDir = null;               // Map directory
-  private LogRecord msg = null;             // Message record
-  private LogRecord trc = null;             // Trace record
+  private volatile HashMap<String, Integer> sevMap = null;   // situation -> index into tecSev
+  private ThreadLocalRecord msgRecord = null;   // Message record (one per engine thread)
+
+  static final String MAPPED = "EventMapSevBySitName.mapped";
+  private static final LongAdder mapped = MetricsRegistry.counter(MAPPED);   // Events where severity has been remapped based on situation name
 
   private void initMsgAndTrcRecord()
   {
-    msg = new LogRecord(LogRecord.TYPE_WARN, "EventMapSevBySitName", "processEvent", "", "", "", "", "");
-    trc = new LogRecord(LogRecord.TYPE_ENTRY, "EventMapSevBySitName", "processEvent", "", "", "", "", "");
+    msgRecord = new ThreadLocalRecord(LogRecord.TYPE_WARN, "EventMapSevBySitName");
   }
 
   private void stdErr(String m)
@@ -57,6 +70,11 @@ public class EventMapSevBySitName implements IEventHandler
   }
 
   public EventMapSevBySitName(String d) throws Exception
+  {
+    this(d, 60);
+  }
+
+  public EventMapSevBySitName(String d, int rescan) throws Exception
   {
     File baseDir = new File(d);
 
@@ -123,121 +141,156 @@ public class EventMapSevBySitName implements IEventHandler
         stdErr("Exception: " + e.getMessage());
       }
     }
+
+    // Keep the map directory tree in memory so that events never have to
+    // touch the filesystem.  Operators still manage mappings by touching
+    // and removing files, the watcher picks up the changes.
+    //
+    reload();
+    DirectoryWatcher.watch(mapDir, this, rescan * 1000L);
   }
 
-  public boolean processEvent(TECEvent ev)
+  // Reread the map directory tree and swap in the new map.  Severity
+  // directories are read from highest to lowest so the first severity
+  // recorded for a situation name is the one which wins, the same as searching the
+  // directories in that order.
+  //
+  public void reload()
   {
-    // Clear previous text in messaage and trace records
-    //
-    msg.setText("");
-    trc.setText("");
+    HashMap<String, Integer> map = new HashMap<String, Integer>();
 
-    if (Cresendo.trcLogger.isLogging)
+    for (int i = 0; i < tecSev.length ; i++)
     {
-      trc.setText("Received event -----> \n  " + ev.toString() );
-    }
-
-    // Now get the value of the situation name attribute
-    //
-    String sitName = ev.getSlot("situation_name");
+      String[] name = new File(mapDir, tecSev[i]).list();   // eg var/MapSevBySitName/fatal
 
-    // Check attribute is not null or empty
-    //
-    if (sitName == null || sitName.length() == 0)
-    {
-      if (Cresendo.trcLogger.isLogging)
+      for (int j = 0; name != null && j < name.length; j++)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  BAILING as value of situation_name attribute is null or string length is zero \n");
-        Cresendo.trcLogger.log(trc);
+        if (! map.containsKey(name[j]))
+        {
+          map.put(name[j], i);
+        }
       }
-      return true;    // Allow event handlers to continue processing event
     }
 
-    // Strip any quotes
-    //
-    sitName = sitName.replaceAll("[\'\"]", "");
-    
-    if (Cresendo.trcLogger.isLogging)
+    sevMap = map;
+  }
+
+  // Returns the index into tecSev of the severity to map to or -1 if
+  // there is no mapping for the situation name
+  //
+  private int lookup(String sitName)
+  {
+    Integer sev = sevMap.get(sitName);
+    return (sev == null) ? -1 : sev;
+  }
+
+  public boolean processEvent(TECEvent ev)
+  {
+    TraceBuffer trc = TraceBuffer.begin("EventMapSevBySitName", ev);   // null unless tracing
+
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Removed any single or double quotes from value of situation_name attribute\n");
-      Cresendo.trcLogger.log(trc);
+      trc.append("Received event -----> \n  ").event();
     }
 
-    // Check attribute is not null or empty
+    // Situation name with quotes removed, worked out once per event
     //
-    if (sitName == null || sitName.length() == 0 || sitName.matches("^\\s*$"))
+    String sitName = EventContext.current().situation(ev);
+
+    if (sitName == null)
     {
-      if (Cresendo.trcLogger.isLogging)
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + "\n  BAILING as value of situation_name attribute is empty after removal of quotes \n");
-        Cresendo.trcLogger.log(trc);
+        trc.append("\n  BAILING as situation_name attribute has no usable value -----> '")
+          .append(ev.getSlot("situation_name")).append("'\n");
+        trc.log();
       }
       return true;    // Allow event handlers to continue processing event
     }
 
-    // Check to see if event severity should be remapped based on the
-    // situation name This search starts from highest to lowest severity
-    // and stops as soon as the first match is found.
-    //
-    for (int i = 0; i < tecSev.length ; i++)
+    if (trc != null)
     {
-      try
-      {
-        File sevDir = new File(mapDir, tecSev[i]);    // eg var/MapSevBySitName/fatal
-        File sevMap = new File(sevDir, sitName);      // eg var/MapSevBySitName/fatal/DiskSpaceLow
-
-        if (Cresendo.trcLogger.isLogging)
-        {
-          String tmpText = trc.getText();
-          trc.setText(tmpText + "\n  Testing if map file exists '" + sevMap.getPath() + "'\n" );  
-        }
+      trc.append("\n  Situation name from situation_name attribute -----> '").append(sitName).append("'\n");
+    }
 
-        if (sevMap.exists())      // If the map file exists
-        {
-          StatusLogger.mapSevBySitName++;
+    // Check to see if event severity should be remapped based on the situation name.
+    // The map directory is held in memory with only the highest severity for
+    // each situation name so this is a single lookup.
+    //
+    int sev = lookup(sitName);
 
-          if (Cresendo.trcLogger.isLogging)
-          {
-            String tmpText = trc.getText();
-            trc.setText(tmpText + "\n  Found map file '" + sevMap.getPath() + "'\n" +
-                                  "\n  Setting event severity to '" + tecSev[i].toUpperCase() + "'\n");
-          }
+    if (trc != null)
+    {
+      trc.append("\n  Looking up map files in '").append(mapDir.getPath()).append("'\n");
+    }
 
-          if (! ev.setSlot("severity", tecSev[i].toUpperCase()))     // Then set the severity of the event
-          {
-            if (Cresendo.trcLogger.isLogging)
-            {
-              String tmpText = trc.getText();
-              trc.setText(tmpText + "\n  Unable to map severity of event to '" +
-                          tecSev[i].toUpperCase() + "' -----> " + ev.toString());
-            }
-          }
+    if (sev >= 0)      // If a map file exists
+    {
+      mapped.increment();
 
-          break;  // Break as soon as a map file is found
-        }
+      if (trc != null)
+      {
+        trc.append("\n  Found map file '").append(mapDir.getPath()).append(Cresendo.dirSep)
+          .append(tecSev[sev]).append(Cresendo.dirSep).append(sitName)
+          .append("'\n\n  Setting event severity to '").append(sevName[sev]).append("'\n");
+        trc.changed();
       }
-      catch (Exception e)
+
+      if (! ev.setSlot("severity", sevName[sev]))     // Then set the severity of the event
       {
-        if (Cresendo.trcLogger.isLogging)
+        if (trc != null)
         {
-          String tmpText = trc.getText();
-          trc.setText(tmpText + "\n  Exception -----> \n  " + e.getMessage());
+          trc.append("\n  Unable to map severity of event to '").append(sevName[sev])
+            .append("' -----> ").event();
         }
       }
     }
 
     // Write trace file
     //
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Passing event to next handler -----> \n  " + ev.toString());
-      Cresendo.trcLogger.log(trc);
+      trc.append("\n  Passing event to next handler -----> \n  ").event();
+      trc.log();
     }
 
     return true;    // Allow event handlers to continue processing event
   }
+
+  // Consecutive events in a batch are often raised by the same situation,
+  // so the severity found for the last situation name is reused while it
+  // stays the same
+  //
+  public int processBatch(TECEvent[] batch, int count)
+  {
+    // With tracing on each event needs its own trace record
+    //
+    if (TraceBuffer.active())
+    {
+      return IEventHandler.super.processBatch(batch, count);
+    }
+
+    EventContext ctx = EventContext.current();
+    String lastSit = null;       // Situation name last looked up
+    int sev = -1;                // Index into tecSev of the last match (-1 for none)
+
+    for (int i = 0; i < count; i++)
+    {
+      String sit = ctx.situation(batch[i]);
+
+      if (sit != lastSit)
+      {
+        sev = (sit == null) ? -1 : lookup(sit);
+        lastSit = sit;
+      }
+
+      if (sev >= 0)
+      {
+        mapped.increment();
+        batch[i].setSlot("severity", sevName[sev]);
+      }
+    }
+
+    return count;    // Allow event handlers to continue processing events
+  }
 }
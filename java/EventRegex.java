@@ -21,6 +21,11 @@
 
 import java.util.Enumeration;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import com.ibm.logging.Logger;
 import com.ibm.logging.LogRecord;
 import com.tivoli.tec.event_delivery.TECEvent;
@@ -31,27 +36,72 @@ public class EventRegex implements IEventHandler
   private String replace = null;      // String to replace parts of matched string
   private String[] attribute = null;  // List of attribute names to consider for regex
   private boolean otherAttrs = false; // Flag to indicate whether to include or exclude attrs from regex
-  private LogRecord msg = null;       // Message record
-  private LogRecord trc = null;       // Trace record
+  private Pattern pattern = null;     // Compiled regex
+  private ThreadLocal<Matcher> matcher = null;   // Matcher reset for each value (one per engine thread)
+  private Pattern[] attrPattern = null;   // Compiled attribute name patterns
+  private ConcurrentHashMap<String, Boolean> selected = new ConcurrentHashMap<String, Boolean>();  // Attribute name -> regex it?
+  private int cacheSize = 0;          // Number of replacements remembered per thread (0 for none)
+  private ThreadLocal<LinkedHashMap<String, String>> cache = null;  // Slot value -> replaced value
+
+  private static final int MAX_SELECTED = 10000;   // Most attribute names remembered
+  private ThreadLocalRecord msgRecord = null;   // Message record (one per engine thread)
 
   private void initAttributes()
   {
+    attrPattern = new Pattern[attribute.length];
+
     for (int i = 0; i < attribute.length ; i++)
     {
       attribute[i].trim();   // Trim leading and trailing whitespace
+      attrPattern[i] = Pattern.compile(attribute[i]);
+    }
+  }
+
+  // Compile the regex once rather than on every replaceAll and set up
+  // the per thread cache of replacements if there is to be one
+  //
+  private void initPattern()
+  {
+    pattern = Pattern.compile(regex);
+
+    matcher = new ThreadLocal<Matcher>()
+    {
+      protected Matcher initialValue()
+      {
+        return pattern.matcher("");
+      }
+    };
+
+    if (cacheSize > 0)
+    {
+      final int max = cacheSize;
+
+      cache = new ThreadLocal<LinkedHashMap<String, String>>()
+      {
+        protected LinkedHashMap<String, String> initialValue()
+        {
+          return new LinkedHashMap<String, String>(16, 0.75f, true)
+          {
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+            {
+              return size() > max;     // Least recently used goes first
+            }
+          };
+        }
+      };
     }
   }
 
   private void initMsgAndTrcRecord()
   {
-    msg = new LogRecord(LogRecord.TYPE_WARN, "EventRegex", "processEvent", "", "", "", "", "");
-    trc = new LogRecord(LogRecord.TYPE_ENTRY, "EventRegex", "processEvent", "", "", "", "", "");
+    msgRecord = new ThreadLocalRecord(LogRecord.TYPE_WARN, "EventRegex");
   }
   
   public EventRegex(String match, String with)
   {
     regex = match;
     replace = with;
+    initPattern();
     initMsgAndTrcRecord();
   }
 
@@ -61,6 +111,7 @@ public class EventRegex implements IEventHandler
     replace = with;
     attribute = attrs.split("[,]");   // Split on commas
     initAttributes();
+    initPattern();
     initMsgAndTrcRecord();
   }
 
@@ -71,90 +122,161 @@ public class EventRegex implements IEventHandler
     attribute = attrs.split("[,]");   // Split on commas
     initAttributes();
     otherAttrs = other;
+    initPattern();
     initMsgAndTrcRecord();
   }
 
-  public boolean processEvent(TECEvent e)
+  // Slot values such as situation names and origins repeat a lot so the
+  // last cache replacements made by each engine thread can be remembered
+  //
+  public EventRegex(String match, String with, String attrs, boolean other, int cache)
   {
-    // Clear previous text in messaage and trace records
-    //
-    msg.setText("");
-    trc.setText("");
+    regex = match;
+    replace = with;
+    attribute = attrs.split("[,]");   // Split on commas
+    initAttributes();
+    otherAttrs = other;
+    cacheSize = cache;
+    initPattern();
+    initMsgAndTrcRecord();
+  }
 
-    if (Cresendo.trcLogger.isLogging)
+  // Decide whether an attribute is to be regex'd.  The answer only
+  // depends on the attribute name so it is worked out once per name.
+  //
+  private boolean isSelected(String attr)
+  {
+    if (attrPattern == null || attrPattern.length == 0)
     {
-      trc.setText("Received event -----> \n  " + e.toString() +
-                  "\n        Matching with regex: '" + regex + "'\n" +
-                  "\n      Replacement string is: '" + replace + "'\n"
-                   );
+      return true;
+    }
 
-      String tmpText = trc.getText();
+    Boolean sel = selected.get(attr);
 
-      if (attribute != null && attribute.length > 0)
+    if (sel == null)
+    {
+      sel = Boolean.TRUE;
+
+      // For each of the attributes
+      //
+      for (int j = 0; j < attrPattern.length; j++)
+      {
+        boolean match = attrPattern[j].matcher(attr).matches();
+
+        if (otherAttrs ? match : ! match)   // Flag indicates whether attributes are included or excluded
+        {
+          sel = Boolean.FALSE;
+          break;
+        }
+      }
+
+      if (selected.size() < MAX_SELECTED)
       {
+        selected.put(attr, sel);
+      }
+    }
+
+    return sel.booleanValue();
+  }
 
-        trc.setText(tmpText + "\n  Designated attributes are: '" + Arrays.toString(attribute) + "'\n");
+  // Perform the regex replace with this thread's matcher.  Most values
+  // don't match so those are given back as they are.
+  //
+  private String replace(String value)
+  {
+    Matcher m = matcher.get().reset(value);
 
-        tmpText = trc.getText();
+    if (! m.find())
+    {
+      return value;
+    }
+
+    return m.replaceAll(replace);
+  }
+
+  // Perform the regex replace, looking in the cache first if there is one
+  //
+  private String replaceAll(String value)
+  {
+    if (cache == null)
+    {
+      return replace(value);
+    }
+
+    LinkedHashMap<String, String> lru = cache.get();
+    String result = lru.get(value);
+
+    if (result == null)
+    {
+      result = replace(value);
+      lru.put(value, result);
+    }
+
+    return result;
+  }
+
+  public boolean processEvent(TECEvent e)
+  {
+    TraceBuffer trc = TraceBuffer.begin("EventRegex", e);   // null unless tracing
+
+    if (trc != null)
+    {
+      trc.append("Received event -----> \n  ").event()
+        .append("\n        Matching with regex: '").append(regex).append("'\n")
+        .append("\n      Replacement string is: '").append(replace).append("'\n");
+
+      if (attribute != null && attribute.length > 0)
+      {
+
+        trc.append("\n  Designated attributes are: '").append(Arrays.toString(attribute)).append("'\n");
 
         if (otherAttrs)
         {
-          trc.setText(tmpText + "\n  Designated attributes are excluded from regex processing\n");
+          trc.append("\n  Designated attributes are excluded from regex processing\n");
         }
         else
         {
-          trc.setText(tmpText + "\n  Regex processing is limited to the designated attributes\n");
+          trc.append("\n  Regex processing is limited to the designated attributes\n");
         }
       }
       else
       {
-        trc.setText(tmpText + "\n  All attributes will be processed by regex replacement\n");
+        trc.append("\n  All attributes will be processed by regex replacement\n");
       }
     }
 
     Enumeration enu = e.slots();
 
-    element: while (enu.hasMoreElements())   
+    while (enu.hasMoreElements())   
     {
       String attr = (String) enu.nextElement();
 
       // Limit regex to attribute names contained in the attribute array 
       //
-      if (attribute != null && attribute.length > 0)
+      if (! isSelected(attr))
       {
-        // For each of the attributes
-        //
-        for (int j = 0; j < attribute.length; j++)
-        {
-          if (otherAttrs)  // Flag indicates whether attributes are included or excluded from regex
-          {
-            if (attr.matches(attribute[j]))
-            {
-              continue element;  // Don't regex the attribute
-            }
-          }
-          else
-          {
-            if (! attr.matches(attribute[j]))
-            {
-              continue element;  // Don't regex the attribute
-            }
-          }
-        }
+        continue;  // Don't regex the attribute
       }
 
       String value = e.getSlot(attr);
 
-      e.setSlot(attr, value.replaceAll(regex, replace));  // Perform the regex replace
+      if (value != null)
+      {
+        String result = replaceAll(value);   // Perform the regex replace
+
+        if (result != value)
+        {
+          e.setSlot(attr, result);           // Only touch slots that changed
+        }
+      }
     }
 
     // Write trace file
     //
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Transformed event to -----> \n  " + e.toString());
-      Cresendo.trcLogger.log(trc);
+      trc.changed().append("\n  Transformed event to -----> \n  ").event();
+      trc.log();
     }
 
     return true;    // Allow event handlers to continue processing events
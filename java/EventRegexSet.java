@@ -0,0 +1,384 @@
+//**********************************************************************
+// cresendo - EventRegexSet
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import com.tivoli.tec.event_delivery.TECEvent;
+
+// A run of EventRegex handlers in one.  The rules are given as a single
+// String option, one sed style rule per line:
+//
+//   <option varname="rules" javatype="String">
+//     s/^Process (\w+) on/Process $1 on/
+//     s|/var/tmp|/tmp|
+//     # Comments and blank lines are ignored
+//   </option>
+//
+// Any character after the s is the delimiter and can be escaped with a
+// backslash within the rule.  Replacements are as for EventRegex (ie $1
+// and not \1 for a group) and are always global, so a trailing g is
+// allowed but changes nothing.  Each rule is applied to the result of the one
+// before, exactly as a chain of EventRegex handlers would.
+//
+// Most slot values match none of the rules, so the rules are also
+// joined into one alternation and a value is scanned once with it.  If
+// the alternation finds nothing neither does any rule and the value is
+// left as it is; only otherwise are the rules applied in turn.  Rules
+// whose groups can't be renumbered (back references) or which don't
+// combine are applied in turn to every value.
+//
+// The number of values each rule has matched is written to the status
+// file so rules which never match can be found and removed.
+//
+public class EventRegexSet implements IEventHandler, IStatusSource
+{
+  private String[] rule = null;       // Rules as written
+  private Pattern[] pattern = null;   // Compiled regex of each rule
+  private String[] replace = null;    // Replacement of each rule
+  private Pattern any = null;         // All of the regexes as one alternation (null if they don't combine)
+  private LongAdder[] hits = null;    // Values each rule has matched
+  private String[] attribute = null;  // List of attribute names to consider for regex
+  private boolean otherAttrs = false; // Flag to indicate whether to include or exclude attrs from regex
+  private Pattern[] attrPattern = null;   // Compiled attribute name patterns
+  private ConcurrentHashMap<String, Boolean> selected = new ConcurrentHashMap<String, Boolean>();  // Attribute name -> regex it?
+  private ThreadLocal<Matcher[]> matcher = null;   // A matcher per rule plus one for the alternation (one set per engine thread)
+  private int instance = 0;           // Which EventRegexSet this is (for the status file)
+
+  private static final int MAX_SELECTED = 10000;   // Most attribute names remembered
+  private static final AtomicInteger instances = new AtomicInteger();
+
+  public EventRegexSet(String rules) throws Exception
+  {
+    initRules(rules);
+  }
+
+  public EventRegexSet(String rules, String attrs) throws Exception
+  {
+    attribute = attrs.split("[,]");   // Split on commas
+    initAttributes();
+    initRules(rules);
+  }
+
+  public EventRegexSet(String rules, String attrs, boolean other) throws Exception
+  {
+    attribute = attrs.split("[,]");   // Split on commas
+    otherAttrs = other;
+    initAttributes();
+    initRules(rules);
+  }
+
+  private void initAttributes()
+  {
+    attrPattern = new Pattern[attribute.length];
+
+    for (int i = 0; i < attribute.length ; i++)
+    {
+      attribute[i] = attribute[i].trim();   // Trim leading and trailing whitespace
+      attrPattern[i] = Pattern.compile(attribute[i]);
+    }
+  }
+
+  private void initRules(String rules) throws Exception
+  {
+    Vector<String> text = new Vector<String>();
+    Vector<Pattern> patterns = new Vector<Pattern>();
+    Vector<String> replacements = new Vector<String>();
+    String[] lines = rules.split("\n");
+
+    for (int i = 0; i < lines.length; i++)
+    {
+      String line = lines[i].trim();
+
+      if (line.length() == 0 || line.startsWith("#"))
+      {
+        continue;
+      }
+
+      String[] part = parse(line);
+
+      if (part == null)
+      {
+        // Note that throwing exceptions when instaniating with java.lang.reflect isn't
+        // a sure-fire way of getting the message to the calling class.  So we pump out
+        // an error message on System.err as well
+        //
+        String error = "Error: EventRegexSet: expected s/regex/replacement/ but found: '" + line + "'";
+        System.err.println(error);
+        throw new Exception(error);
+      }
+
+      text.addElement(line);
+      patterns.addElement(Pattern.compile(part[0]));
+      replacements.addElement(part[1]);
+    }
+
+    rule = text.toArray(new String[text.size()]);
+    pattern = patterns.toArray(new Pattern[patterns.size()]);
+    replace = replacements.toArray(new String[replacements.size()]);
+    hits = new LongAdder[rule.length];
+
+    for (int i = 0; i < hits.length; i++)
+    {
+      hits[i] = new LongAdder();
+    }
+
+    any = combine(pattern);
+
+    matcher = new ThreadLocal<Matcher[]>()
+    {
+      protected Matcher[] initialValue()
+      {
+        Matcher[] m = new Matcher[pattern.length + 1];
+
+        for (int i = 0; i < pattern.length; i++)
+        {
+          m[i] = pattern[i].matcher("");
+        }
+
+        m[pattern.length] = (any == null) ? null : any.matcher("");
+        return m;
+      }
+    };
+
+    instance = instances.incrementAndGet();
+    StatusLogger.addSource(this);
+  }
+
+  // Split s<d>regex<d>replacement<d> into the regex and the replacement
+  // or return null if the rule isn't in that form
+  //
+  static String[] parse(String line)
+  {
+    if (line.length() < 4 || line.charAt(0) != 's')
+    {
+      return null;
+    }
+
+    char d = line.charAt(1);
+    String[] part = new String[2];
+    StringBuilder sb = new StringBuilder();
+    int n = 0;
+
+    for (int i = 2; i < line.length(); i++)
+    {
+      char c = line.charAt(i);
+
+      if (c == '\\' && i + 1 < line.length() && line.charAt(i + 1) == d)
+      {
+        sb.append(d);                 // Escaped delimiter
+        i++;
+      }
+      else if (c == d)
+      {
+        if (n == 2)
+        {
+          return null;                // Too many delimiters
+        }
+        part[n++] = sb.toString();
+        sb.setLength(0);
+      }
+      else
+      {
+        sb.append(c);
+      }
+    }
+
+    // The closing delimiter may be left off
+    //
+    if (n == 1)
+    {
+      part[n++] = sb.toString();
+    }
+    else if (sb.length() > 0 && ! sb.toString().equals("g"))
+    {
+      return null;                    // Text after the closing delimiter
+    }
+
+    return (n == 2 && part[0].length() > 0) ? part : null;
+  }
+
+  // Join the regexes into one alternation which matches somewhere in a
+  // value if and only if one of them does.  Back references would point
+  // at the wrong groups once the groups are renumbered, and comments
+  // mode would swallow the rest of the alternation, so neither is joined.
+  //
+  private static Pattern combine(Pattern[] p)
+  {
+    if (p.length < 2)
+    {
+      return null;                    // Nothing to gain
+    }
+
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < p.length; i++)
+    {
+      String re = p[i].pattern();
+
+      if (re.matches("(?s).*\\\\([1-9]|k<).*") || re.matches("(?s).*\\(\\?[a-zA-Z-]*x.*"))
+      {
+        return null;
+      }
+
+      sb.append((i == 0) ? "(?:" : "|(?:").append(re).append(')');
+    }
+
+    try
+    {
+      return Pattern.compile(sb.toString());
+    }
+    catch (PatternSyntaxException e)
+    {
+      return null;                    // Duplicate group names for example
+    }
+  }
+
+  // Decide whether an attribute is to be regex'd.  The answer only
+  // depends on the attribute name so it is worked out once per name.
+  //
+  private boolean isSelected(String attr)
+  {
+    if (attrPattern == null || attrPattern.length == 0)
+    {
+      return true;
+    }
+
+    Boolean sel = selected.get(attr);
+
+    if (sel == null)
+    {
+      sel = Boolean.TRUE;
+
+      for (int j = 0; j < attrPattern.length; j++)
+      {
+        boolean match = attrPattern[j].matcher(attr).matches();
+
+        if (otherAttrs ? match : ! match)   // Flag indicates whether attributes are included or excluded
+        {
+          sel = Boolean.FALSE;
+          break;
+        }
+      }
+
+      if (selected.size() < MAX_SELECTED)
+      {
+        selected.put(attr, sel);
+      }
+    }
+
+    return sel.booleanValue();
+  }
+
+  // Apply every rule in turn to the value, giving back the value itself
+  // if no rule matches
+  //
+  private String replaceAll(String value, TraceBuffer trc)
+  {
+    Matcher[] m = matcher.get();
+
+    if (any != null && ! m[pattern.length].reset(value).find())
+    {
+      return value;                   // No rule matches
+    }
+
+    for (int i = 0; i < pattern.length; i++)
+    {
+      if (m[i].reset(value).find())
+      {
+        value = m[i].replaceAll(replace[i]);
+        hits[i].increment();
+
+        if (trc != null)
+        {
+          trc.append("\n  Rule ").append(i + 1).append(" '").append(rule[i]).append("' gave '")
+            .append(value).append("'\n");
+        }
+      }
+    }
+
+    return value;
+  }
+
+  public boolean processEvent(TECEvent e)
+  {
+    TraceBuffer trc = TraceBuffer.begin("EventRegexSet", e);   // null unless tracing
+
+    if (trc != null)
+    {
+      trc.append("Received event -----> \n  ").event()
+        .append("\n  Applying ").append(rule.length).append(" rules")
+        .append((any == null) ? " one at a time\n" : " behind a combined pattern\n");
+    }
+
+    Enumeration enu = e.slots();
+
+    while (enu.hasMoreElements())
+    {
+      String attr = (String) enu.nextElement();
+
+      // Limit regex to attribute names contained in the attribute array
+      //
+      if (! isSelected(attr))
+      {
+        continue;  // Don't regex the attribute
+      }
+
+      String value = e.getSlot(attr);
+
+      if (value != null)
+      {
+        String result = replaceAll(value, trc);
+
+        if (result != value)
+        {
+          e.setSlot(attr, result);    // Only touch slots that changed
+        }
+      }
+    }
+
+    // Write trace file
+    //
+    if (trc != null)
+    {
+      trc.changed().append("\n  Transformed event to -----> \n  ").event();
+      trc.log();
+    }
+
+    return true;    // Allow event handlers to continue processing events
+  }
+
+  public void logStatus(FileWriter sfw) throws IOException
+  {
+    for (int i = 0; i < rule.length; i++)
+    {
+      sfw.write("\n  RegexSet " + instance + " rule " + (i + 1) + " '" + rule[i] + "': hits '" + hits[i].sum() + "'");
+    }
+  }
+}
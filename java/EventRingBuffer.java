@@ -0,0 +1,460 @@
+//**********************************************************************
+// cresendo - EventRingBuffer
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import com.tivoli.tec.event_delivery.TECEvent;
+
+// A bounded, preallocated ring buffer sitting between the TECAgent
+// receiver thread and an engine worker thread.
+//
+// Slots are claimed with compare-and-set on the head and tail counters
+// and published through a per slot sequence number, so neither side takes
+// a lock.  Any number of threads may add events but only the owning
+// worker thread takes them off.  What happens when the buffer is full is
+// decided by the overflow policy.
+//
+class EventRingBuffer
+{
+  // Overflow policies
+  //
+  static final int BLOCK = 0;              // Wait for the worker to make room
+  static final int DROP_OLDEST = 1;        // Throw away the oldest queued event
+  static final int DROP_SEVERITY = 2;      // Throw away the least severe of the queued events and the new event
+  static final int SPILL = 3;              // Write the new event to the spill file
+
+  // TEC severities from least to most severe
+  //
+  private static final String[] sevRank = {
+                                            "UNKNOWN",
+                                            "HARMLESS",
+                                            "WARNING",
+                                            "MINOR",
+                                            "CRITICAL",
+                                            "FATAL"
+                                          };
+
+  private int mask = 0;                         // Capacity - 1 (capacity is a power of two)
+  private TECEvent[] slot = null;               // Queued events
+  private long[] stamp = null;                  // Time each queued event was received (nanoseconds)
+  private byte[] rank = null;                   // Severity rank of each queued event (DROP_SEVERITY only)
+  private long polledStamp = 0;                 // Receive time of the event last taken off (worker only)
+  LatencyHistogram waitLatency = null;          // Queue wait histogram (null unless latency is on)
+  private AtomicLongArray sequence = null;      // Per slot sequence numbers
+  private AtomicLong head = new AtomicLong();   // Next position to take from
+  private AtomicLong tail = new AtomicLong();   // Next position to add to
+  private int policy = BLOCK;                   // What to do when the buffer is full
+  private EventSpillFile spill = null;          // Spill file (SPILL policy only)
+  private volatile Thread consumer = null;      // Worker thread taking events off the buffer
+  private volatile boolean parked = false;      // Is the worker waiting for events
+
+  // Statistics written to the status file
+  //
+  final AtomicLong waitTotal = new AtomicLong();     // Total queue wait time since last status (nanoseconds)
+  final AtomicLong waitCount = new AtomicLong();     // Number of events taken since last status
+  final AtomicLong waitMax = new AtomicLong();       // Longest queue wait since last status (nanoseconds)
+  final AtomicLong dropped = new AtomicLong();       // Events dropped because the buffer was full
+  final AtomicLong spilled = new AtomicLong();       // Events written to the spill file
+  final AtomicLong blocked = new AtomicLong();       // Time producers spent waiting for room (nanoseconds)
+
+  static int policy(String p)
+  {
+    if (p.equals("block"))                return BLOCK;
+    if (p.equals("drop-oldest"))          return DROP_OLDEST;
+    if (p.equals("drop-lowest-severity")) return DROP_SEVERITY;
+    if (p.equals("spill"))                return SPILL;
+    return -1;
+  }
+
+  EventRingBuffer(int capacity, int p, EventSpillFile s)
+  {
+    int size = 2;
+    while (size < capacity)
+    {
+      size <<= 1;      // Round up to a power of two
+    }
+
+    mask = size - 1;
+    slot = new TECEvent[size];
+    stamp = new long[size];
+    sequence = new AtomicLongArray(size);
+    policy = p;
+    spill = s;
+
+    if (policy == DROP_SEVERITY)
+    {
+      rank = new byte[size];
+    }
+
+    for (int i = 0; i < size; i++)
+    {
+      sequence.set(i, i);
+    }
+  }
+
+  void setConsumer(Thread t)
+  {
+    consumer = t;
+  }
+
+  int capacity()
+  {
+    return mask + 1;
+  }
+
+  int size()
+  {
+    long s = tail.get() - head.get();
+    return (int) (s < 0 ? 0 : s);
+  }
+
+  // Add an event, applying the overflow policy if the buffer is full
+  //
+  void put(TECEvent e)
+  {
+    put(e, System.nanoTime());
+  }
+
+  // Add an event received (System.nanoTime) at the given time
+  //
+  void put(TECEvent e, long received)
+  {
+    // Once events have gone to the spill file the later ones have to
+    // follow them there until the worker has read the file back, or they
+    // would overtake the spilled events
+    //
+    if (policy == SPILL && spill.pending())
+    {
+      spill(e);
+    }
+    else if (! offer(e, received))
+    {
+      switch (policy)
+      {
+      case DROP_OLDEST:   dropOldest(e, received); break;
+      case DROP_SEVERITY: dropSeverity(e, received); break;
+      case SPILL:         spill(e); break;
+      default:            block(e, received); break;
+      }
+    }
+
+    if (parked)
+    {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  // Take the next event off the buffer or return null if it is empty.
+  // Under the drop-lowest-severity policy the producers may move queued
+  // events about (see evict), so the worker takes the buffer's lock.
+  //
+  TECEvent poll()
+  {
+    if (rank == null)
+    {
+      return take();
+    }
+
+    synchronized (this)
+    {
+      return take();
+    }
+  }
+
+  private TECEvent take()
+  {
+    while (true)
+    {
+      long pos = head.get();
+      int i = (int) pos & mask;
+      long seq = sequence.get(i);
+
+      if (seq < pos + 1)
+      {
+        return null;                             // Nothing published at this position yet
+      }
+
+      if (seq == pos + 1 && head.compareAndSet(pos, pos + 1))
+      {
+        TECEvent e = slot[i];
+        long wait = System.nanoTime() - stamp[i];
+
+        polledStamp = stamp[i];
+
+        slot[i] = null;
+        sequence.set(i, pos + mask + 1);         // Hand the slot back to the producers
+
+        waitTotal.addAndGet(wait);
+        waitCount.incrementAndGet();
+        if (wait > waitMax.get())
+        {
+          waitMax.set(wait);
+        }
+        if (waitLatency != null)
+        {
+          waitLatency.record(wait);
+        }
+        return e;
+      }
+    }
+  }
+
+  // Called by the worker thread when there is nothing to do.  The flag is
+  // set before the final check so a producer either sees it and unparks
+  // the worker or the worker sees the new event.
+  //
+  void await(long nanos)
+  {
+    parked = true;
+
+    if (size() == 0)
+    {
+      LockSupport.parkNanos(this, nanos);
+    }
+
+    parked = false;
+  }
+
+  // Receive time of the event last returned by poll
+  //
+  long polledStamp()
+  {
+    return polledStamp;
+  }
+
+  boolean hasSpill()
+  {
+    return spill != null && spill.pending();
+  }
+
+  EventSpillFile getSpill()
+  {
+    return spill;
+  }
+
+  private boolean offer(TECEvent e, long received)
+  {
+    while (true)
+    {
+      long pos = tail.get();
+      int i = (int) pos & mask;
+      long seq = sequence.get(i);
+
+      if (seq < pos)
+      {
+        return false;                            // Slot not yet freed by the worker (buffer is full)
+      }
+
+      if (seq == pos && tail.compareAndSet(pos, pos + 1))
+      {
+        slot[i] = e;
+        stamp[i] = received;
+        if (rank != null)
+        {
+          rank[i] = (byte) severityRank(e);
+        }
+        sequence.set(i, pos + 1);                // Publish the event to the worker
+        return true;
+      }
+    }
+  }
+
+  private void block(TECEvent e, long received)
+  {
+    long start = System.nanoTime();
+
+    while (! offer(e, received))
+    {
+      if (parked)
+      {
+        LockSupport.unpark(consumer);
+      }
+      LockSupport.parkNanos(50000);
+    }
+
+    blocked.addAndGet(System.nanoTime() - start);
+  }
+
+  private void dropOldest(TECEvent e, long received)
+  {
+    while (! offer(e, received))
+    {
+      if (discard())
+      {
+        dropped.incrementAndGet();
+      }
+    }
+  }
+
+  // Throw away the oldest queued event on behalf of a producer.  Unlike
+  // poll this leaves the worker's polledStamp and the wait statistics
+  // alone.  Returns false if there was nothing to throw away.
+  //
+  private boolean discard()
+  {
+    while (true)
+    {
+      long pos = head.get();
+      int i = (int) pos & mask;
+      long seq = sequence.get(i);
+
+      if (seq < pos + 1)
+      {
+        return false;                            // Nothing published at this position yet
+      }
+
+      if (seq == pos + 1 && head.compareAndSet(pos, pos + 1))
+      {
+        slot[i] = null;
+        sequence.set(i, pos + mask + 1);         // Hand the slot back to the producers
+        return true;
+      }
+    }
+  }
+
+  // Drop the least severe of the queued events and the new event.  Ties
+  // go against the queued event, and among queued events of the same
+  // severity against the oldest.
+  //
+  private void dropSeverity(TECEvent e, long received)
+  {
+    int r = severityRank(e);
+
+    while (! offer(e, received))
+    {
+      synchronized (this)
+      {
+        if (offer(e, received))
+        {
+          return;                                // Worker made room in the meantime
+        }
+
+        if (! evict(r))
+        {
+          dropped.incrementAndGet();             // New event is the least severe
+          return;
+        }
+      }
+
+      dropped.incrementAndGet();
+    }
+  }
+
+  // Throw away the oldest of the least severe queued events, provided it
+  // ranks no higher than r.  The events queued before it move up a slot,
+  // which keeps them in order, and the oldest slot is handed back to the
+  // producers.  Called with the lock held, which keeps the worker (see
+  // poll) and the other producers under this policy out.  Returns false
+  // if every queued event is more severe.
+  //
+  private boolean evict(int r)
+  {
+    long first = head.get();
+    long victim = -1;
+    int lowest = r + 1;
+
+    for (long pos = first; pos <= first + mask; pos++)
+    {
+      int i = (int) pos & mask;
+
+      if (sequence.get(i) != pos + 1)
+      {
+        break;                                   // Not published yet
+      }
+
+      if (rank[i] < lowest)
+      {
+        lowest = rank[i];
+        victim = pos;
+
+        if (lowest == 0)
+        {
+          break;                                 // Nothing ranks lower
+        }
+      }
+    }
+
+    if (victim < 0)
+    {
+      return false;
+    }
+
+    for (long pos = victim; pos > first; pos--)
+    {
+      int to = (int) pos & mask;
+      int from = (int) (pos - 1) & mask;
+
+      slot[to] = slot[from];
+      stamp[to] = stamp[from];
+      rank[to] = rank[from];
+    }
+
+    int i = (int) first & mask;
+
+    slot[i] = null;
+    head.set(first + 1);
+    sequence.set(i, first + mask + 1);           // Hand the slot back to the producers
+    return true;
+  }
+
+  private void spill(TECEvent e)
+  {
+    try
+    {
+      spill.append(e.toString(true));
+      spilled.incrementAndGet();
+    }
+    catch (Exception ex)
+    {
+      dropped.incrementAndGet();
+      System.err.println("Cresendo: EventRingBuffer: unable to spill event: " + ex.toString());
+    }
+  }
+
+  static int severityRank(TECEvent e)
+  {
+    String sev = e.getSlot("severity");
+
+    if (sev == null)
+    {
+      return 0;
+    }
+
+    return Math.max(severityRank(SlotValue.stripQuotes(sev)), 0);
+  }
+
+  // Rank of a severity name (UNKNOWN is 0, FATAL is 5) or -1 if the name
+  // isn't a severity
+  //
+  static int severityRank(String sev)
+  {
+    for (int i = sevRank.length - 1; i >= 0; i--)
+    {
+      if (sevRank[i].equalsIgnoreCase(sev))
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -21,27 +21,89 @@
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.atomic.LongAdder;
 import com.tivoli.tec.event_delivery.TECEvent;
 import com.tivoli.tec.event_delivery.TECAgent;
 import com.tivoli.tec.event_delivery.EDException;
 import com.ibm.logging.Logger;
 import com.ibm.logging.LogRecord;
 
-public class EventSend implements IEventHandler
+public class EventSend implements IEventHandler, IStatusSource, IHealthSource
 {
   private File cf = null;             // File object holding configuration file
-  private TECAgent sendTo = null;     // Sender TECAgent object
-  private LogRecord msg = null;       // Message record
-  private LogRecord trc = null;       // Trace record
+  private IEventSender sendTo = null;   // Sender TECAgent object
+  private IEventSender given = null;    // Used by every connection instead of a TECAgent when set (benchmarks)
+  private EventSender[] sender = null;   // Outbound connections (asynchronous mode only)
+  private EventSpool spool = null;       // Store for events which could not be sent (optional)
+  private volatile boolean failing = false;   // Did the last send fail
+  private LatencyHistogram toSend = null;     // Time from receive to send (null unless latency is on)
+  private LatencyHistogram toDrop = null;     // Time from receive to being filtered out (null unless latency is on)
+  private ThreadLocalRecord msgRecord = null;   // Message record (one per engine thread)
+
+  static final String FAILED = "EventSend.failed";
+  static final String FILTERED = "EventSend.filtered";
+  static final String SUCCESS = "EventSend.success";
+  static final String SPOOL_FILTERED = "EventSend.spool.filtered";
+  static final String SPOOL_SUCCESS = "EventSend.spool.success";
+  private static final LongAdder sentFailed = MetricsRegistry.counter(FAILED);       // Events where send failed
+  private static final LongAdder sentFiltered = MetricsRegistry.counter(FILTERED);   // Events filtered out by the TECAgent
+  private static final LongAdder sentSuccess = MetricsRegistry.counter(SUCCESS);     // Events successfully sent
+  private static final LongAdder spoolFiltered = MetricsRegistry.counter(SPOOL_FILTERED);   // Spooled events filtered out when sent later
+  private static final LongAdder spoolSuccess = MetricsRegistry.counter(SPOOL_SUCCESS);     // Spooled events sent later
 
   private void initMsgAndTrcRecord()
   {
-    msg = new LogRecord(LogRecord.TYPE_WARN, "EventSend", "processEvent", "", "", "", "", "");
-    trc = new LogRecord(LogRecord.TYPE_ENTRY, "EventSend", "processEvent", "", "", "", "", "");
+    msgRecord = new ThreadLocalRecord(LogRecord.TYPE_WARN, "EventSend");
+  }
+
+  private IEventSender newSender() throws Exception
+  {
+    if (given != null)
+    {
+      return given;
+    }
+
+    FileReader cfReader = new FileReader(cf);
+
+    try
+    {
+      final TECAgent agent = new TECAgent(cfReader ,TECAgent.SENDER_MODE, false);
+
+      return new IEventSender()
+      {
+        public int sendEvent(String event)
+        {
+          return agent.sendEvent(event);
+        }
+      };
+    }
+    catch (EDException e)
+    {
+      // Note that throwing exceptions when instaniating with java.lang.reflect isn't
+      // a sure-fire way of getting the message to the calling class.  So we pump out
+      // an error message on System.err as well
+      //
+      String error = "Error: Unable to instantiate TECAgent Sender using config: '" + cf.getPath() + "'\n" + e.toString();
+      System.err.println(error);
+      throw new Exception(error);
+    }
   }
   
   public EventSend(String c) throws Exception
   {
+    this(c, (IEventSender) null);
+  }
+
+  // As above but writing to s rather than to TECAgents built from the
+  // config file when s isn't null (see Cresendo.loadHandlers)
+  //
+  EventSend(String c, IEventSender s) throws Exception
+  {
+    given = s;
+
     // Assume config file is in the config directory which is
     // passed as an argument on the commmand line
     //
@@ -60,64 +122,467 @@ public class EventSend implements IEventHandler
       throw new Exception(error);
     }
 
-    FileReader cfReader = new FileReader(cf);
+    sendTo = newSender();
+
+    initMsgAndTrcRecord();
+
+    if (EventContext.stamping)
+    {
+      toSend = MetricsRegistry.latency("EventSend." + cf.getName() + ".receive-to-send");
+      toDrop = MetricsRegistry.latency(EventEngine.RECEIVE_TO_DROP);
+    }
+
+    MetricsRegistry.addHealth(this);
+  }
+
+  // Asynchronous mode.  Events are queued for a pool of sender connections,
+  // each with its own TECAgent built from the same config file, and the
+  // handler returns straight away.  Events from the same host always use
+  // the same connection so they are sent in the order they were received.
+  //
+  public EventSend(String c, int connections, int queueSize) throws Exception
+  {
+    this(c, connections, queueSize, (IEventSender) null);
+  }
+
+  EventSend(String c, int connections, int queueSize, IEventSender s) throws Exception
+  {
+    this(c, s);
+
+    if (connections > 0)
+    {
+      sender = new EventSender[connections];
+
+      for (int i = 0; i < connections; i++)
+      {
+        sender[i] = new EventSender(this, i, (i == 0) ? sendTo : newSender(), queueSize);
+        sender[i].start();
+
+        Management.registerSender(cf.getName(), i, sender[i]);
+      }
+
+      StatusLogger.addSource(this);
+    }
+  }
+
+  // Store and forward.  Events which can't be sent are kept in a spool
+  // under <d>/Spool/<config file name> of at most spoolMb megabytes and
+  // sent, oldest first and at most drainRate events a second, by a
+  // separate connection once the destination is back.  While the spool
+  // holds events new events are added to it as well so that they are
+  // sent in order.
+  //
+  public EventSend(String c, int connections, int queueSize, String d, int spoolMb, int drainRate) throws Exception
+  {
+    this(c, connections, queueSize, d, spoolMb, drainRate, null);
+  }
+
+  EventSend(String c, int connections, int queueSize, String d, int spoolMb, int drainRate, IEventSender s) throws Exception
+  {
+    this(c, connections, queueSize, s);
+
+    File spoolDir = new File(new File(d, "Spool"), c);
 
     try
     {
-      sendTo = new TECAgent(cfReader ,TECAgent.SENDER_MODE, false);
+      spool = new EventSpool(spoolDir, spoolMb * 1024L * 1024L);
     }
-    catch (EDException e)
+    catch (Exception e)
     {
-      // Note that throwing exceptions when instaniating with java.lang.reflect isn't
-      // a sure-fire way of getting the message to the calling class.  So we pump out
-      // an error message on System.err as well
-      //
-      String error = "Error: Unable to instantiate TECAgent Sender using config: '" + cf.getPath() + "'\n" + e.toString();
+      String error = "Error: Unable to open spool directory: '" + spoolDir.getPath() + "'\n" + e.toString();
       System.err.println(error);
       throw new Exception(error);
     }
 
-    initMsgAndTrcRecord();
+    spool.start();
+    new EventSpoolDrainer(this, spool, newSender(), drainRate).start();
+
+    StatusLogger.addSource(spool);
+  }
+
+  // Record the outcome of a send.  Note that sendEvent returns:
+  //
+  //   -1 (SEND_FAILURE), if an error occurs
+  //    0 (SEND_FILTERED), if the event was filtered
+  //   >0 (number of bytes sent), if success
+  //
+  void countResult(int rc)
+  {
+    switch (rc)
+    {
+    case -1: sentFailed.increment();  break ;
+    case  0: sentFiltered.increment(); break ;
+    default: sentSuccess.increment(); break ;
+    }
+
+    setFailing(rc == -1);
+  }
+
+  // Outcome of sending a spooled event.  The event was already counted
+  // when it was first sent (or not at all if it went straight to the
+  // spool), so it is counted apart from the events sent first time.
+  //
+  void countRecovered(int rc)
+  {
+    if (rc == 0)
+    {
+      spoolFiltered.increment();
+    }
+    else if (rc > 0)
+    {
+      spoolSuccess.increment();
+    }
+
+    setFailing(rc == -1);
+  }
+
+  // Only written when the outcome changes
+  //
+  private void setFailing(boolean f)
+  {
+    if (failing != f)
+    {
+      failing = f;
+    }
+  }
+
+  // Readiness (see MetricsHttpServer).  The destination is taken to be
+  // unavailable while the last send failed or events are waiting in the
+  // spool.
+  //
+  public String health()
+  {
+    if (failing)
+    {
+      return "EventSend '" + cf.getName() + "' last send failed";
+    }
+
+    if (spool != null && spool.depth() > 0)
+    {
+      return "EventSend '" + cf.getName() + "' has '" + spool.depth() + "' events spooled";
+    }
+
+    return null;
+  }
+
+  // Record how long an event received (System.nanoTime) at rx took to
+  // get through cresendo, given the outcome of sending it.  An event the
+  // TECAgent filtered out counts as dropped.  Nothing is recorded for a
+  // failed send, the event goes on to the spool, or when the receive
+  // time isn't known, eg for events read back from a spill file.
+  //
+  void sent(long rx, long now, int rc)
+  {
+    if (toSend == null || rx == 0)
+    {
+      return;
+    }
+
+    if (rc > 0)
+    {
+      toSend.record(now - rx);
+    }
+    else if (rc == 0)
+    {
+      toDrop.record(now - rx);
+    }
+  }
+
+  void sendResult(int rc, String event)
+  {
+    countResult(rc);
+
+    if (rc == -1)
+    {
+      toSpool(event);
+    }
+  }
+
+  // Add an event to the spool.  Returns false if there is no spool or
+  // the event couldn't be written to it.
+  //
+  private boolean toSpool(String event)
+  {
+    if (spool == null)
+    {
+      return false;
+    }
+
+    try
+    {
+      spool.append(event);
+      return true;
+    }
+    catch (Exception e)
+    {
+      System.err.println("Cresendo: EventSend: unable to spool event: " + e.toString());
+      return false;
+    }
+  }
+
+  // Called once the engine has stopped taking events (see
+  // EventEngine.shutdown).  Waits, until the deadline (System.currentTimeMillis),
+  // for the sender connections to send what is queued, then moves
+  // anything still queued to the spool and writes the spool out so that
+  // it is sent after the restart.  Returns a line for the shutdown message
+  // or null if nothing was left.
+  //
+  String shutdown(long deadline)
+  {
+    int spooled = 0;
+    int lost = 0;
+
+    for (int i = 0; sender != null && i < sender.length; i++)
+    {
+      while (sender[i].inFlight() > 0 && System.currentTimeMillis() < deadline)
+      {
+        try
+        {
+          Thread.sleep(10);
+        }
+        catch (InterruptedException ie)
+        {
+          break;
+        }
+      }
+
+      Vector<String> left = sender[i].drain();
+
+      for (int j = 0; j < left.size(); j++)
+      {
+        if (toSpool(left.elementAt(j)))
+        {
+          spooled++;
+        }
+        else
+        {
+          lost++;
+        }
+      }
+    }
+
+    sentFailed.add(lost);
+
+    if (spool != null)
+    {
+      try
+      {
+        spool.commit();
+      }
+      catch (IOException e)
+      {
+        System.err.println("Cresendo: EventSend: unable to write spool: " + e.toString());
+      }
+    }
+
+    if (spooled + lost == 0)
+    {
+      return null;
+    }
+
+    return "EventSend '" + cf.getName() + "': '" + spooled + "' events spooled, '" + lost + "' events not sent";
+  }
+
+  // Events queue up behind a non empty spool so they stay in order.  In
+  // asynchronous mode this is called by the connection as it takes each
+  // event off its queue, which keeps the events of one host in the order
+  // they were queued whether they are sent or spooled.
+  //
+  boolean spoolFirst(String event)
+  {
+    return spool != null && spool.depth() > 0 && toSpool(event);
+  }
+
+  // Work out which connection an event goes out on
+  //
+  private int connection(TECEvent ev, EventContext ctx)
+  {
+    String host = ctx.host(ev);
+
+    if (host == null)
+    {
+      return 0;
+    }
+
+    return (host.hashCode() & 0x7fffffff) % sender.length;
+  }
+
+  // Queue an event for its connection.  Returns the connection or -1 if
+  // the engine thread was interrupted while waiting for room in the queue.
+  //
+  private int queue(TECEvent ev, String evText, EventContext ctx)
+  {
+    int c = connection(ev, ctx);
+
+    try
+    {
+      sender[c].put(evText, (toSend == null) ? 0 : ctx.received(ev));
+      return c;
+    }
+    catch (InterruptedException ie)
+    {
+      sentFailed.increment();
+      return -1;
+    }
   }
 
   public boolean processEvent(TECEvent ev)
   {
-    // Clear previous text in messaage and trace records
-    //
-    msg.setText("");
-    trc.setText("");
+    TraceBuffer trc = TraceBuffer.begin("EventSend", ev);   // null unless tracing
 
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      trc.setText("Received event -----> \n  " + ev.toString() +
-                  "\n  Using config file: '" + cf.getPath() + "'\n"
-                   );
+      trc.append("Received event -----> \n  ").event()
+        .append("\n  Using config file: '").append(cf.getPath()).append("'\n");
     }
 
-    // Note that sendEvent returns:
+    String evText = TECEvent.normalizeEvEnd(ev.toString(true));
+
+    // In asynchronous mode the connection decides between sending and
+    // spooling (see EventSender.run), so events queued before the spool
+    // filled up are spooled ahead of this one
     //
-    //   -1 (SEND_FAILURE), if an error occurs
-    //    0 (SEND_FILTERED), if the event was filtered
-    //   >0 (number of bytes sent), if success
+    if (sender != null)
+    {
+      int c = queue(ev, evText, EventContext.current());
+
+      if (trc != null)
+      {
+        trc.append("\n  Queued event for connection '").append(c).append("' -----> \n  ")
+          .event();
+        trc.log();
+      }
+
+      return true;    // Allow event handlers to continue processing events
+    }
+
+    if (spoolFirst(evText))
+    {
+      if (trc != null)
+      {
+        trc.append("\n  Spooled event behind '").append(spool.depth())
+          .append("' undelivered events -----> \n  ").event();
+        trc.log();
+      }
+
+      return true;    // Allow event handlers to continue processing events
+    }
+
+    // The sender is shared by all of the engine worker threads so only one of
+    // them may write to its connection at a time
     //
-    int rc = sendTo.sendEvent(TECEvent.normalizeEvEnd(ev.toString(true)));
+    int rc = 0;
 
-    switch (rc)
+    synchronized (sendTo)
+    {
+      rc = sendTo.sendEvent(evText);
+    }
+
+    if (toSend != null)
     {
-    case -1: StatusLogger.sentFailed++;  break ;
-    case  0: StatusLogger.sentFiltered++; break ;
-    default: StatusLogger.sentSuccess++; break ;
+      sent(EventContext.current().received(ev), System.nanoTime(), rc);
     }
 
+    sendResult(rc, evText);
+
     // Write trace file
     //
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Sent event -----> \n  " + ev.toString());
-      Cresendo.trcLogger.log(trc);
+      trc.append("\n  Sent event -----> \n  ").event();
+      trc.log();
     }
 
     return true;    // Allow event handlers to continue processing events
   }
+
+  // Send a whole batch while holding the sender once and update the
+  // status counters once per batch rather than once per event
+  //
+  public int processBatch(TECEvent[] batch, int count)
+  {
+    // With tracing on each event needs its own trace record
+    //
+    if (TraceBuffer.active())
+    {
+      return IEventHandler.super.processBatch(batch, count);
+    }
+
+    EventContext ctx = EventContext.current();
+    String[] evText = ctx.text(count);     // Reused by this thread for every batch
+    int failed = 0;
+    int filtered = 0;
+    int success = 0;
+    int rc = 1;
+
+    for (int i = 0; i < count; i++)
+    {
+      evText[i] = TECEvent.normalizeEvEnd(batch[i].toString(true));
+    }
+
+    if (sender != null)
+    {
+      for (int i = 0; i < count; i++)
+      {
+        queue(batch[i], evText[i], ctx);
+      }
+
+      ctx.clear(count);
+      return count;
+    }
+
+    synchronized (sendTo)
+    {
+      for (int i = 0; i < count; i++)
+      {
+        if (spoolFirst(evText[i]))
+        {
+          continue;
+        }
+
+        switch (rc = sendTo.sendEvent(evText[i]))
+        {
+        case -1: failed++; toSpool(evText[i]); break ;
+        case  0: filtered++; break ;
+        default: success++; break ;
+        }
+
+        if (toSend != null)
+        {
+          sent(ctx.received(batch[i]), System.nanoTime(), rc);
+        }
+      }
+    }
+
+    ctx.clear(count);
+
+    sentFailed.add(failed);
+    sentFiltered.add(filtered);
+    sentSuccess.add(success);
+
+    if (failed + filtered + success > 0)
+    {
+      setFailing(rc == -1);
+    }
+
+    return count;    // Allow event handlers to continue processing events
+  }
+
+  public void logStatus(FileWriter sfw) throws IOException
+  {
+    // Send latency covers the period since the status file was last written
+    //
+    for (int i = 0; i < sender.length; i++)
+    {
+      long count = sender[i].latencyCount.getAndSet(0);
+      long total = sender[i].latencyTotal.getAndSet(0);
+      long max = sender[i].latencyMax.getAndSet(0);
+      double avg = (count == 0) ? 0.0 : (total / (double) count);
+
+      sfw.write("\n    Sender " + cf.getName() + "[" + i + "]: in flight '" + sender[i].inFlight() +
+                "' sent '" + sender[i].sent.get() +
+                "' latency avg '" + String.format("%.3f", avg / 1000000.0) +
+                "' ms max '" + String.format("%.3f", max / 1000000.0) + "' ms");
+    }
+  }
 }
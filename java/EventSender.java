@@ -0,0 +1,189 @@
+//**********************************************************************
+// cresendo - EventSender
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One outbound connection used by EventSend in asynchronous mode.  The
+// engine threads queue events which have already been turned into EIF
+// strings and the sender thread writes them to its TECAgent, or to the
+// spool while it holds events, in the order they were queued.  When the
+// queue is full the engine thread waits.
+//
+class EventSender extends Thread
+{
+  private EventSend owner = null;                  // Handler owning this connection
+  private IEventSender agent = null;               // Sender TECAgent object
+  private ArrayBlockingQueue<Pending> queue = null;   // Events waiting to be sent
+  private final AtomicInteger unsent = new AtomicInteger();   // Events put but not yet sent (or drained)
+
+  // Statistics written to the status file
+  //
+  final AtomicLong sent = new AtomicLong();            // Events handed to the TECAgent
+  final AtomicLong latencyTotal = new AtomicLong();    // Time spent in sendEvent since last status (nanoseconds)
+  final AtomicLong latencyCount = new AtomicLong();    // Number of sends since last status
+  final AtomicLong latencyMax = new AtomicLong();      // Longest sendEvent since last status (nanoseconds)
+  final LatencyHistogram latency = new LatencyHistogram();   // Time spent in sendEvent since start up (see SenderStats)
+
+  EventSender(EventSend es, int id, IEventSender a, int queueSize)
+  {
+    super("EventSender-" + id);
+    owner = es;
+    agent = a;
+    queue = new ArrayBlockingQueue<Pending>(queueSize);
+    setDaemon(true);      // Don't hold up the jvm at shutdown
+  }
+
+  // An event waiting to be sent and when it was received by the engine
+  // (System.nanoTime, 0 if not known)
+  //
+  private static final class Pending
+  {
+    final String text;
+    final long received;
+
+    Pending(String t, long r)
+    {
+      text = t;
+      received = r;
+    }
+  }
+
+  void put(String event) throws InterruptedException
+  {
+    put(event, 0);
+  }
+
+  void put(String event, long received) throws InterruptedException
+  {
+    unsent.incrementAndGet();
+
+    try
+    {
+      queue.put(new Pending(event, received));
+    }
+    catch (InterruptedException ie)
+    {
+      unsent.decrementAndGet();
+      throw ie;
+    }
+  }
+
+  // Take every event still waiting to be sent off the queue (see
+  // EventSend.shutdown).  An event already being sent is left to finish.
+  //
+  Vector<String> drain()
+  {
+    Vector<Pending> pending = new Vector<Pending>();
+    Vector<String> events = new Vector<String>();
+
+    queue.drainTo(pending);
+
+    for (int i = 0; i < pending.size(); i++)
+    {
+      events.add(pending.elementAt(i).text);
+    }
+
+    unsent.addAndGet(-pending.size());
+
+    return events;
+  }
+
+  int queued()
+  {
+    return queue.size();
+  }
+
+  // Events queued or being sent.  Counted apart from the queue so that
+  // an event just taken off it is never missed.
+  //
+  int inFlight()
+  {
+    return unsent.get();
+  }
+
+  public void run()
+  {
+    while (true)
+    {
+      try
+      {
+        Pending p = queue.take();
+        String event = p.text;
+
+        // Once a send has failed everything behind it goes to the spool
+        // until the spool has been sent
+        //
+        if (owner.spoolFirst(event))
+        {
+          unsent.decrementAndGet();
+          continue;
+        }
+
+        long start = System.nanoTime();
+        int rc = -1;
+
+        // An exception from the connection is a failed send, so the event
+        // is counted and spooled like any other
+        //
+        try
+        {
+          rc = agent.sendEvent(event);
+        }
+        catch (RuntimeException re)
+        {
+          System.err.println("Cresendo: " + getName() + ": " + re.toString());
+        }
+
+        long took = System.nanoTime() - start;
+        owner.sent(p.received, start + took, rc);
+
+        sent.incrementAndGet();
+        latencyTotal.addAndGet(took);
+        latencyCount.incrementAndGet();
+
+        long m = latencyMax.get();
+
+        while (took > m && ! latencyMax.compareAndSet(m, took))
+        {
+          m = latencyMax.get();
+        }
+
+        latency.record(took);
+
+        owner.sendResult(rc, event);
+        unsent.decrementAndGet();
+      }
+      catch (InterruptedException ie)
+      {
+        return;
+      }
+      catch (Exception e)
+      {
+        unsent.decrementAndGet();
+        System.err.println("Cresendo: " + getName() + ": " + e.toString());
+      }
+    }
+  }
+}
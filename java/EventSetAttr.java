@@ -28,13 +28,25 @@ public class EventSetAttr implements IEventHandler
   private boolean overWrite = true;   // Overwrite and existing attribute's value?
   private String setAttr = null;      // Name of attribute to set
   private String setValue = null;     // Value of attribute to set
-  private LogRecord msg = null;       // Message record
-  private LogRecord trc = null;       // Trace record
+  private String quoted = null;       // setValue without quotes, re-quoted (worked out once)
+  private boolean blank = true;       // Is setValue null, "" or only white space
+  private ThreadLocalRecord msgRecord = null;   // Message record (one per engine thread)
 
   private void initMsgAndTrcRecord()
   {
-    msg = new LogRecord(LogRecord.TYPE_WARN, "EventSetAttr", "processEvent", "", "", "", "", "");
-    trc = new LogRecord(LogRecord.TYPE_ENTRY, "EventSetAttr", "processEvent", "", "", "", "", "");
+    msgRecord = new ThreadLocalRecord(LogRecord.TYPE_WARN, "EventSetAttr");
+  }
+
+  // The value never changes so strip and re-quote it here rather than
+  // for every event
+  //
+  private void initValue()
+  {
+    blank = setValue == null || SlotValue.trimsToNothing(setValue);
+    if (!blank)
+    {
+      quoted = "'" + SlotValue.stripQuotes(setValue) + "'";
+    }
   }
 
   public EventSetAttr(String name, String data)
@@ -42,6 +54,7 @@ public class EventSetAttr implements IEventHandler
     setAttr = name;
     setValue= data;
     initMsgAndTrcRecord();
+    initValue();
   }
 
   public EventSetAttr(String name, String data, boolean ow)
@@ -50,20 +63,18 @@ public class EventSetAttr implements IEventHandler
     setValue= data;
     overWrite = ow;
     initMsgAndTrcRecord();
+    initValue();
   }
 
   public boolean processEvent(TECEvent e)
   {
-    // Clear previous text in messaage and trace records
-    //
-    msg.setText("");
-    trc.setText("");
+    TraceBuffer trc = TraceBuffer.begin("EventSetAttr", e);   // null unless tracing
 
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      trc.setText("Received event as -----> \n  " + e.toString() +
-                  "\n  Intend to set attribute '" + setAttr +
-                  "' with value '" + setValue + "'\n");
+      trc.append("Received event as -----> \n  ").event()
+        .append("\n  Intend to set attribute '").append(setAttr)
+        .append("' with value '").append(setValue).append("'\n");
     }
 
     // If we are not supposed to overwrite slots with existing values
@@ -79,15 +90,14 @@ public class EventSetAttr implements IEventHandler
       //
       if (attrValue != null)
       {
-        if (Cresendo.trcLogger.isLogging)
+        if (trc != null)
         {
-          String tmpText = trc.getText();
-          trc.setText(tmpText + "\n  Not overwriting attribute '" + setAttr +
-                      "' as it already has an  existing value '" + attrValue + "'\n");
+          trc.append("\n  Not overwriting attribute '").append(setAttr)
+            .append("' as it already has an  existing value '").append(attrValue).append("'\n");
 
           // Write to trace log as next statement is to exit method
           //
-          Cresendo.trcLogger.log(trc);
+          trc.log();
         }
 
         return true;  // Allow event handlers to continue processing event
@@ -96,10 +106,7 @@ public class EventSetAttr implements IEventHandler
 
     // Protect against null, "" or " " string values
     //
-    if (setValue == null ||                    // Value is null
-        setValue.length() == 0 ||              // Value is ""
-        setValue.trim().length() == 0          // Value is only white space
-        )
+    if (blank)
     {
       String text = "\n  WARNING: Bailing out because the resultant value of the component is either null," +
         " of zero length or consists purely of white space characters \n";
@@ -107,15 +114,14 @@ public class EventSetAttr implements IEventHandler
       
       // Log to trace file
       //
-      if (Cresendo.trcLogger.isLogging)
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + text);
-        Cresendo.trcLogger.log(trc);
+        trc.append(text).log();
       }
 
       // Log to message file
       //
+      LogRecord msg = msgRecord.get();
       msg.setText(text); 
       Cresendo.msgLogger.log(msg);
 
@@ -124,7 +130,7 @@ public class EventSetAttr implements IEventHandler
 
     // Get rid of any quote characters (hanging or otherwise) and re-quote to avoid evil characters
     // 
-    boolean validNameAndValue = e.setSlot(setAttr, "'" + setValue.replaceAll("[\'\"]", "") + "'");
+    boolean validNameAndValue = e.setSlot(setAttr, quoted);
 
     if (validNameAndValue != true)
     {
@@ -137,32 +143,23 @@ public class EventSetAttr implements IEventHandler
 
       // Write trace record
       //
-      if (Cresendo.trcLogger.isLogging)
+      if (trc != null)
       {
-        String tmpText = trc.getText();
-        trc.setText(tmpText + text);
+        trc.append(text);
       }
 
       // Write log record
       //
+      LogRecord msg = msgRecord.get();
       msg.setText(text);
-    }
-
-    // Write log file
-    //
-    String msgText = msg.getText();
-    if (msgText != null && msgText != "")
-    {
       Cresendo.msgLogger.log(msg);
     }
 
     // Write trace file
     //
-    if (Cresendo.trcLogger.isLogging)
+    if (trc != null)
     {
-      String tmpText = trc.getText();
-      trc.setText(tmpText + "\n  Transformed event to -----> \n  " + e.toString());
-      Cresendo.trcLogger.log(trc);
+      trc.changed().append("\n  Transformed event to -----> \n  ").event().log();
     }
 
     return true;  // Allow next event handler to process event
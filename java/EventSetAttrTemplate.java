@@ -0,0 +1,332 @@
+//**********************************************************************
+// cresendo - EventSetAttrTemplate
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.Vector;
+import com.ibm.logging.LogRecord;
+import com.tivoli.tec.event_delivery.TECEvent;
+
+// Sets any number of attributes from templates read from a file in the
+// config directory, one per line:
+//
+//   # Comments and blank lines are ignored
+//   msg = "${hostname}: ${situation_name}"
+//   cresendo_instance = bench
+//
+// ${name} is replaced by the value of the event's attribute name.  Each
+// template is parsed once into its literal text and attribute references,
+// and for every event the value is built in a StringBuilder kept by each
+// engine thread.  As with EventSetAttr any quotes are removed from the
+// value, which is then re-quoted.
+//
+// Templates are applied in the order they appear, so a template can use
+// an attribute set by an earlier one.  An attribute is left alone if a
+// template refers to an attribute the event doesn't have, or if the value
+// comes out as nothing but white space.
+//
+public class EventSetAttrTemplate implements IEventHandler
+{
+  // A template once parsed.  The value is literal[0] + slot[0] +
+  // literal[1] + ... + slot[n - 1] + literal[n].
+  //
+  private static class Template
+  {
+    String attr = null;                 // Attribute to set
+    String text = null;                 // Template as written
+    String[] literal = null;            // Literal text between references (quotes removed)
+    String[] slot = null;               // Names of the attributes referred to
+    String constant = null;             // Quoted value if the template refers to no attributes (else null)
+  }
+
+  private boolean overWrite = true;     // Overwrite an existing attribute's value?
+  private File cf = null;               // Template file
+  private Template[] template = null;   // Templates in the order they are applied
+  private ThreadLocalRecord msgRecord = null;   // Message record (one per engine thread)
+
+  private static final ThreadLocal<StringBuilder> builder = new ThreadLocal<StringBuilder>()
+  {
+    protected StringBuilder initialValue()
+    {
+      return new StringBuilder(256);
+    }
+  };
+
+  private void initMsgAndTrcRecord()
+  {
+    msgRecord = new ThreadLocalRecord(LogRecord.TYPE_WARN, "EventSetAttrTemplate");
+  }
+
+  public EventSetAttrTemplate(String c) throws Exception
+  {
+    this(c, true);
+  }
+
+  public EventSetAttrTemplate(String c, boolean ow) throws Exception
+  {
+    // Assume the template file is in the config directory which is
+    // passed as an argument on the command line
+    //
+    cf = new File(Cresendo.configDir + Cresendo.dirSep + c);
+    overWrite = ow;
+
+    if (!cf.canRead())
+    {
+      // Note that throwing exceptions when instaniating with java.lang.reflect isn't
+      // a sure-fire way of getting the message to the calling class.  So we pump out
+      // an error message on System.err as well
+      //
+      String error = "Error: Unable to access template file: '" + cf.getPath() + "'";
+      System.err.println(error);
+      throw new Exception(error);
+    }
+
+    template = load(cf);
+    initMsgAndTrcRecord();
+  }
+
+  private static Template[] load(File f) throws Exception
+  {
+    Vector<Template> v = new Vector<Template>();
+    BufferedReader in = new BufferedReader(new FileReader(f));
+
+    try
+    {
+      String line = null;
+      int n = 0;
+
+      while ((line = in.readLine()) != null)
+      {
+        n++;
+        line = line.trim();
+
+        if (line.length() == 0 || line.startsWith("#"))
+        {
+          continue;
+        }
+
+        int eq = line.indexOf('=');
+
+        if (eq <= 0 || line.substring(0, eq).trim().length() == 0)
+        {
+          String error = "Error: Expected 'attribute = template' at line " + n + " of template file: '" +
+            f.getPath() + "'";
+          System.err.println(error);
+          throw new Exception(error);
+        }
+
+        try
+        {
+          v.addElement(parse(line.substring(0, eq).trim(), line.substring(eq + 1).trim()));
+        }
+        catch (IllegalArgumentException e)
+        {
+          String error = "Error: " + e.getMessage() + " at line " + n + " of template file: '" + f.getPath() + "'";
+          System.err.println(error);
+          throw new Exception(error);
+        }
+      }
+    }
+    finally
+    {
+      in.close();
+    }
+
+    return v.toArray(new Template[v.size()]);
+  }
+
+  // Split a template into its literal text and ${name} references
+  //
+  static Template parse(String attr, String text)
+  {
+    Vector<String> literals = new Vector<String>();
+    Vector<String> slots = new Vector<String>();
+    int from = 0;
+    int at = 0;
+
+    while ((at = text.indexOf("${", from)) >= 0)
+    {
+      int end = text.indexOf('}', at + 2);
+
+      if (end < 0)
+      {
+        throw new IllegalArgumentException("Unterminated ${ in template '" + text + "'");
+      }
+
+      String name = text.substring(at + 2, end).trim();
+
+      if (name.length() == 0)
+      {
+        throw new IllegalArgumentException("Empty ${} in template '" + text + "'");
+      }
+
+      literals.addElement(SlotValue.stripQuotes(text.substring(from, at)));
+      slots.addElement(name);
+      from = end + 1;
+    }
+
+    literals.addElement(SlotValue.stripQuotes(text.substring(from)));
+
+    Template t = new Template();
+
+    t.attr = attr;
+    t.text = text;
+    t.literal = literals.toArray(new String[literals.size()]);
+    t.slot = slots.toArray(new String[slots.size()]);
+
+    if (t.slot.length == 0 && ! SlotValue.trimsToNothing(t.literal[0]))
+    {
+      t.constant = "'" + t.literal[0] + "'";
+    }
+
+    return t;
+  }
+
+  // Build the quoted value of a template or return null if an attribute
+  // it refers to is missing or the value is only white space
+  //
+  private static String value(Template t, TECEvent e)
+  {
+    if (t.slot.length == 0)
+    {
+      return t.constant;
+    }
+
+    StringBuilder sb = builder.get();
+    boolean blank = true;
+
+    sb.setLength(0);
+    sb.append('\'');
+
+    for (int i = 0; i < t.slot.length; i++)
+    {
+      String value = e.getSlot(t.slot[i]);
+
+      if (value == null)
+      {
+        return null;
+      }
+
+      sb.append(t.literal[i]);
+
+      for (int j = 0; j < value.length(); j++)
+      {
+        char c = value.charAt(j);
+
+        if (c != '\'' && c != '"')
+        {
+          sb.append(c);              // Quotes removed as they are copied
+        }
+      }
+    }
+
+    sb.append(t.literal[t.slot.length]);
+
+    for (int i = 1; blank && i < sb.length(); i++)
+    {
+      blank = sb.charAt(i) <= ' ';
+    }
+
+    if (blank)
+    {
+      return null;
+    }
+
+    return sb.append('\'').toString();
+  }
+
+  public boolean processEvent(TECEvent e)
+  {
+    TraceBuffer trc = TraceBuffer.begin("EventSetAttrTemplate", e);   // null unless tracing
+
+    if (trc != null)
+    {
+      trc.append("Received event as -----> \n  ").event()
+        .append("\n  Applying ").append(template.length).append(" templates from '").append(cf.getPath())
+        .append("'\n");
+    }
+
+    for (int i = 0; i < template.length; i++)
+    {
+      Template t = template[i];
+
+      // If we are not supposed to overwrite slots with existing values
+      // then leave the attribute alone
+      //
+      if (!overWrite && e.getSlot(t.attr) != null)
+      {
+        if (trc != null)
+        {
+          trc.append("\n  Not overwriting attribute '").append(t.attr)
+            .append("' as it already has an existing value '").append(e.getSlot(t.attr)).append("'\n");
+        }
+        continue;
+      }
+
+      String value = value(t, e);
+
+      if (value == null)
+      {
+        if (trc != null)
+        {
+          trc.append("\n  Not setting attribute '").append(t.attr).append("' as template '").append(t.text)
+            .append("' refers to a missing attribute or gives only white space\n");
+        }
+        continue;
+      }
+
+      if (trc != null)
+      {
+        trc.append("\n  Setting attribute '").append(t.attr).append("' to ").append(value).append("\n");
+      }
+
+      if (! e.setSlot(t.attr, value))
+      {
+        // The attribute wasn't set because there were some invalid
+        // characters in the attribute's name and/or value
+        //
+        String text = "\n  WARNING: Attribute not set due to invalid characters in either the name or value\n" +
+          "  Attribute  name: '" + t.attr + "'\n" +
+          "  Attribute value: " + value + "\n";
+
+        if (trc != null)
+        {
+          trc.append(text);
+        }
+
+        LogRecord msg = msgRecord.get();
+        msg.setText(text);
+        Cresendo.msgLogger.log(msg);
+      }
+    }
+
+    // Write trace file
+    //
+    if (trc != null)
+    {
+      trc.changed().append("\n  Transformed event to -----> \n  ").event().log();
+    }
+
+    return true;  // Allow next event handler to process event
+  }
+}
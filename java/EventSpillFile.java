@@ -0,0 +1,154 @@
+//**********************************************************************
+// cresendo - EventSpillFile
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.util.Vector;
+
+// Overflow file for an EventRingBuffer using the spill policy.  Events
+// which don't fit into the ring buffer are appended to the file as
+// length prefixed strings and read back by the worker thread once the
+// ring buffer has drained.  The file is truncated whenever it has been
+// read back completely.  Every append is forced to disk, the spill is
+// there to survive an outage, and a record left half written by a crash
+// is cut off when it is reached rather than read back.
+//
+class EventSpillFile
+{
+  private File file = null;                  // Spill file
+  private FileOutputStream fos = null;       // Append file (opened on first use)
+  private DataOutputStream out = null;       // Append stream on fos
+  private long readPos = 0;                  // Offset of the next event to read back
+  private volatile boolean pending = false;  // Does the file hold unread events
+
+  EventSpillFile(String path)
+  {
+    file = new File(path);
+
+    // Pick up anything left behind by a previous run
+    //
+    pending = file.exists() && file.length() > 0;
+  }
+
+  String getPath()
+  {
+    return file.getPath();
+  }
+
+  boolean pending()
+  {
+    return pending;
+  }
+
+  synchronized void append(String event) throws IOException
+  {
+    if (out == null)
+    {
+      fos = new FileOutputStream(file, true);
+      out = new DataOutputStream(new BufferedOutputStream(fos));
+    }
+
+    byte[] b = event.getBytes("UTF-8");
+    out.writeInt(b.length);
+    out.write(b);
+    out.flush();
+    fos.getFD().sync();
+
+    pending = true;
+  }
+
+  // Read back at most max events
+  //
+  synchronized Vector<String> drain(int max) throws IOException
+  {
+    Vector<String> events = new Vector<String>(max);
+
+    if (out != null)
+    {
+      out.flush();
+    }
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    try
+    {
+      raf.seek(readPos);
+
+      while (events.size() < max && raf.getFilePointer() < raf.length())
+      {
+        long pos = raf.getFilePointer();
+        int len = (pos + 4 <= raf.length()) ? raf.readInt() : -1;
+
+        // A record cut short (eg by a crash while it was being written)
+        // can never be read back, so it is cut off along with anything
+        // after it, which can't be found without its length
+        //
+        if (len <= 0 || pos + 4 + len > raf.length())
+        {
+          System.err.println("Cresendo: EventSpillFile: '" + file.getPath() + "': discarding '" +
+                             (raf.length() - pos) + "' bytes of incomplete event at offset '" + pos + "'");
+          close();
+          raf.setLength(pos);
+          raf.seek(pos);
+          break;
+        }
+
+        byte[] b = new byte[len];
+        raf.readFully(b);
+        events.addElement(new String(b, "UTF-8"));
+      }
+
+      readPos = raf.getFilePointer();
+
+      // Everything has been read back so start again with an empty file
+      //
+      if (readPos >= raf.length())
+      {
+        close();
+
+        new FileOutputStream(file, false).close();
+        readPos = 0;
+        pending = false;
+      }
+    }
+    finally
+    {
+      raf.close();
+    }
+
+    return events;
+  }
+
+  private void close() throws IOException
+  {
+    if (out != null)
+    {
+      out.close();
+      out = null;
+      fos = null;
+    }
+  }
+}
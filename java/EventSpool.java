@@ -0,0 +1,480 @@
+//**********************************************************************
+// cresendo - EventSpool
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Vector;
+
+// A persistent, append only store for events which could not be sent.
+//
+// The spool lives in its own directory and is made up of fixed size,
+// memory mapped segment files (segment-0000000001.spool etc) each
+// holding a sequence of records:
+//
+//   int length, long time added (milliseconds), length bytes of EIF event
+//
+// The length is written last so a record torn by a crash reads back as
+// the end of the data.  A length of -1 marks the end of a segment which
+// was filled up.  The read position is kept in the file "position".
+//
+// Appends only touch memory.  Dirty segments and the read position are
+// forced to disk by commit(), which the EventSpool's own thread calls
+// every COMMIT_INTERVAL milliseconds, so many appends share one fsync.
+// When the spool grows past its size limit the oldest segment is thrown
+// away, unread events and all.
+//
+class EventSpool extends Thread implements IStatusSource
+{
+  static final int COMMIT_INTERVAL = 200;       // Group commit interval (milliseconds)
+
+  private static final int HEADER = 12;         // Record length and time added
+  private static final int MAX_SEGMENT = 16 * 1024 * 1024;  // Largest segment size (bytes)
+  private static final int MIN_SEGMENT = 64 * 1024;         // Smallest segment size (bytes)
+  private static final int SEGMENTS = 4;        // Segments the size limit is split into (at least)
+
+  private File dir = null;                      // Spool directory
+  private long maxBytes = 0;                    // Size limit for all segments
+  private int segSize = 0;                      // Segment file size
+  private Vector<Long> segment = new Vector<Long>();   // Segment ids, oldest first
+  private long writeId = 0;                     // Segment being written
+  private MappedByteBuffer writeBuf = null;
+  private int writePos = 0;
+  private long readId = 0;                      // Segment being read
+  private MappedByteBuffer readBuf = null;
+  private int readPos = 0;
+  private volatile long depth = 0;              // Number of unread events (read without the lock)
+  private long evicted = 0;                     // Unread events thrown away to stay under the size limit
+  private boolean dirty = false;                // Anything to commit
+
+  EventSpool(File d, long max) throws IOException
+  {
+    super("EventSpool-" + d.getName());
+    setDaemon(true);      // Don't hold up the jvm at shutdown
+
+    dir = d;
+    maxBytes = max;
+    segSize = (int) Math.max(MIN_SEGMENT, Math.min(MAX_SEGMENT, maxBytes / SEGMENTS));
+
+    // With fewer segments an eviction could throw away the segment being
+    // written to, or leave nothing but that one
+    //
+    if (maxBytes < (long) SEGMENTS * segSize)
+    {
+      throw new IOException("Spool size '" + maxBytes + "' bytes is less than '" + SEGMENTS +
+                            "' segments of '" + segSize + "' bytes");
+    }
+
+    if (! dir.exists() && ! dir.mkdirs())
+    {
+      throw new IOException("Unable to create spool directory: '" + dir.getPath() + "'");
+    }
+
+    recover();
+  }
+
+  // Pick up where a previous run left off.  Only the segments being read
+  // and written are mapped, the others are read once to count their
+  // events and mapped when the reader gets to them.
+  //
+  private void recover() throws IOException
+  {
+    String[] name = dir.list();
+    Arrays.sort(name);
+
+    for (int i = 0; i < name.length; i++)
+    {
+      if (name[i].startsWith("segment-") && name[i].endsWith(".spool"))
+      {
+        segment.addElement(Long.valueOf(name[i].substring(8, name[i].length() - 6)));
+      }
+    }
+
+    if (segment.isEmpty())
+    {
+      segment.addElement(Long.valueOf(1));
+    }
+
+    writeId = segment.lastElement().longValue();
+    writeBuf = map(writeId);
+    writePos = 0;
+
+    while (writePos + 4 <= segSize && writeBuf.getInt(writePos) > 0)
+    {
+      writePos += HEADER + writeBuf.getInt(writePos);
+    }
+
+    // Read position, if it still refers to a segment we have
+    //
+    readId = segment.firstElement().longValue();
+    readPos = 0;
+
+    File pf = new File(dir, "position");
+
+    if (pf.exists())
+    {
+      RandomAccessFile raf = new RandomAccessFile(pf, "r");
+
+      try
+      {
+        long id = raf.readLong();
+        int pos = raf.readInt();
+
+        if (segment.contains(Long.valueOf(id)))
+        {
+          readId = id;
+          readPos = pos;
+        }
+      }
+      catch (IOException e)
+      {
+        // Unreadable position file, start at the oldest segment
+      }
+      finally
+      {
+        raf.close();
+      }
+    }
+
+    readBuf = map(readId);
+
+    ByteBuffer scratch = null;
+
+    for (int i = segment.indexOf(Long.valueOf(readId)); i < segment.size(); i++)
+    {
+      long id = segment.elementAt(i).longValue();
+
+      if (id == readId)
+      {
+        depth += count(readBuf, readPos);
+      }
+      else if (id == writeId)
+      {
+        depth += count(writeBuf, 0);
+      }
+      else
+      {
+        if (scratch == null)
+        {
+          scratch = ByteBuffer.allocate(segSize);
+        }
+        depth += count(read(id, scratch), 0);
+      }
+    }
+  }
+
+  // Read a whole segment into buf without mapping it
+  //
+  private ByteBuffer read(long id, ByteBuffer buf) throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(segmentFile(id), "r");
+
+    Arrays.fill(buf.array(), (byte) 0);
+    buf.clear();
+
+    try
+    {
+      FileChannel fc = raf.getChannel();
+      int n = 0;
+
+      while (n >= 0 && buf.hasRemaining())
+      {
+        n = fc.read(buf);
+      }
+    }
+    finally
+    {
+      raf.close();
+    }
+
+    return buf;
+  }
+
+  private File segmentFile(long id)
+  {
+    return new File(dir, String.format("segment-%010d.spool", id));
+  }
+
+  private MappedByteBuffer map(long id) throws IOException
+  {
+    if (id == writeId && writeBuf != null)
+    {
+      return writeBuf;
+    }
+
+    RandomAccessFile raf = new RandomAccessFile(segmentFile(id), "rw");
+
+    try
+    {
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segSize);
+    }
+    finally
+    {
+      raf.close();    // The mapping stays valid after the file is closed
+    }
+  }
+
+  // Number of records in a segment from the given offset
+  //
+  private int count(ByteBuffer buf, int pos)
+  {
+    int n = 0;
+
+    while (pos + 4 <= segSize && buf.getInt(pos) > 0)
+    {
+      pos += HEADER + buf.getInt(pos);
+      n++;
+    }
+    return n;
+  }
+
+  long depth()
+  {
+    return depth;
+  }
+
+  synchronized void append(String event) throws IOException
+  {
+    byte[] b = event.getBytes("UTF-8");
+    int need = HEADER + b.length;
+
+    if (need + 4 > segSize)
+    {
+      throw new IOException("Event too large for spool segment (" + b.length + " bytes)");
+    }
+
+    // Leave room for the end of segment marker
+    //
+    if (writePos + need + 4 > segSize)
+    {
+      writeBuf.putInt(writePos, -1);
+      writeBuf.force();
+
+      writeId++;
+      writeBuf = null;              // So that map() creates the new segment
+      writeBuf = map(writeId);
+      writePos = 0;
+      segment.addElement(Long.valueOf(writeId));
+    }
+
+    writeBuf.putLong(writePos + 4, System.currentTimeMillis());
+    writeBuf.position(writePos + HEADER);
+    writeBuf.put(b);
+    writeBuf.putInt(writePos, b.length);      // Written last, see above
+
+    writePos += need;
+    depth++;
+    dirty = true;
+
+    // Stay under the size limit by throwing away the oldest segment
+    //
+    while ((long) segment.size() * segSize > maxBytes && segment.size() > 1)
+    {
+      long oldest = segment.firstElement().longValue();
+
+      if (oldest == readId)
+      {
+        int lost = count(readBuf, readPos);
+        depth -= lost;
+        evicted += lost;
+        nextReadSegment();
+      }
+      else
+      {
+        segment.removeElementAt(0);
+        segmentFile(oldest).delete();
+      }
+    }
+  }
+
+  // Move the reader on to the next segment and remove the one it was on
+  //
+  private void nextReadSegment() throws IOException
+  {
+    segment.removeElement(Long.valueOf(readId));
+    segmentFile(readId).delete();
+
+    readId = segment.firstElement().longValue();
+    readBuf = map(readId);
+    readPos = 0;
+    dirty = true;
+  }
+
+  // Position of the oldest unread record, or -1 if there is none
+  //
+  private int oldest() throws IOException
+  {
+    while (true)
+    {
+      if (readId == writeId && readPos >= writePos)
+      {
+        return -1;
+      }
+
+      int len = (readPos + 4 <= segSize) ? readBuf.getInt(readPos) : -1;
+
+      if (len > 0)
+      {
+        return readPos;
+      }
+
+      if (readId == writeId)
+      {
+        return -1;
+      }
+
+      nextReadSegment();     // End of a finished segment
+    }
+  }
+
+  // An event handed out by peek and where it was in the spool
+  //
+  static final class Record
+  {
+    final String event;
+    final long segment;                         // Segment id
+    final int pos;                              // Offset in the segment
+
+    Record(String e, long s, int p)
+    {
+      event = e;
+      segment = s;
+      pos = p;
+    }
+  }
+
+  // The oldest unread event, or null if the spool is empty
+  //
+  synchronized Record peek() throws IOException
+  {
+    int pos = oldest();
+
+    if (pos < 0)
+    {
+      return null;
+    }
+
+    byte[] b = new byte[readBuf.getInt(pos)];
+    MappedByteBuffer dup = (MappedByteBuffer) readBuf.duplicate();
+    dup.position(pos + HEADER);
+    dup.get(b);
+
+    return new Record(new String(b, "UTF-8"), readId, pos);
+  }
+
+  // Mark an event returned by peek as read.  The lock isn't held while
+  // the event is sent, so its segment may have been evicted in the
+  // meantime; then the oldest event is now another one, which mustn't be
+  // marked, and false is returned.  Segment ids are never reused.
+  //
+  synchronized boolean remove(Record r) throws IOException
+  {
+    int pos = oldest();
+
+    if (pos < 0 || readId != r.segment || pos != r.pos)
+    {
+      return false;
+    }
+
+    readPos = pos + HEADER + readBuf.getInt(pos);
+    depth--;
+    dirty = true;
+    return true;
+  }
+
+  // Time the oldest unread event was added or 0 if the spool is empty
+  //
+  synchronized long oldestTime() throws IOException
+  {
+    int pos = oldest();
+    return (pos < 0) ? 0 : readBuf.getLong(pos + 4);
+  }
+
+  synchronized void commit() throws IOException
+  {
+    if (! dirty)
+    {
+      return;
+    }
+
+    writeBuf.force();
+
+    RandomAccessFile raf = new RandomAccessFile(new File(dir, "position"), "rw");
+
+    try
+    {
+      raf.seek(0);
+      raf.writeLong(readId);
+      raf.writeInt(readPos);
+      raf.getFD().sync();
+    }
+    finally
+    {
+      raf.close();
+    }
+
+    dirty = false;
+  }
+
+  public void run()
+  {
+    while (true)
+    {
+      try
+      {
+        Thread.sleep(COMMIT_INTERVAL);
+        commit();
+      }
+      catch (InterruptedException ie)
+      {
+        return;
+      }
+      catch (Exception e)
+      {
+        System.err.println("Cresendo: " + getName() + ": " + e.toString());
+      }
+    }
+  }
+
+  public void logStatus(FileWriter sfw) throws IOException
+  {
+    long now = System.currentTimeMillis();
+    long d = 0;
+    long t = 0;
+    long e = 0;
+
+    synchronized (this)
+    {
+      d = depth;
+      t = oldestTime();
+      e = evicted;
+    }
+
+    sfw.write("\n    Spool " + dir.getName() + ": depth '" + d + "' oldest '" +
+              ((t == 0) ? 0 : (now - t) / 1000) + "' seconds evicted '" + e + "'");
+  }
+}
@@ -0,0 +1,97 @@
+//**********************************************************************
+// cresendo - EventSpoolDrainer
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.util.concurrent.locks.LockSupport;
+
+// Sends the events held in an EventSpool once the destination is back.
+// The drainer has its own TECAgent connection and sends events oldest
+// first, no faster than the configured rate so that a TEC server which
+// has just recovered isn't flattened by the backlog.  If a send fails it
+// waits RETRY_INTERVAL milliseconds before trying the same event again.
+//
+class EventSpoolDrainer extends Thread
+{
+  static final int IDLE_INTERVAL = 1000;        // How often an empty spool is checked (milliseconds)
+  static final int RETRY_INTERVAL = 5000;       // Wait after a failed send (milliseconds)
+
+  private EventSend owner = null;               // Handler owning the spool
+  private EventSpool spool = null;              // Events waiting to be sent
+  private IEventSender agent = null;            // Connection used to drain the spool
+  private long gap = 0;                         // Minimum time between sends (nanoseconds)
+
+  EventSpoolDrainer(EventSend es, EventSpool s, IEventSender a, int rate)
+  {
+    super("EventSpoolDrainer");
+    owner = es;
+    spool = s;
+    agent = a;
+    gap = (rate > 0) ? 1000000000L / rate : 0;
+    setDaemon(true);      // Don't hold up the jvm at shutdown
+  }
+
+  public void run()
+  {
+    long next = System.nanoTime();
+
+    while (true)
+    {
+      try
+      {
+        EventSpool.Record r = spool.peek();
+
+        if (r == null)
+        {
+          Thread.sleep(IDLE_INTERVAL);
+          continue;
+        }
+
+        // Pace the sends
+        //
+        long now = System.nanoTime();
+        if (now < next)
+        {
+          LockSupport.parkNanos(next - now);
+        }
+        next = Math.max(now, next) + gap;
+
+        int rc = agent.sendEvent(r.event);
+
+        if (rc == -1)
+        {
+          Thread.sleep(RETRY_INTERVAL);    // Still down, keep the event and try again later
+          continue;
+        }
+
+        spool.remove(r);          // No-op if the event was evicted while it was being sent
+        owner.countRecovered(rc);
+      }
+      catch (InterruptedException ie)
+      {
+        return;
+      }
+      catch (Exception e)
+      {
+        System.err.println("Cresendo: " + getName() + ": " + e.toString());
+      }
+    }
+  }
+}
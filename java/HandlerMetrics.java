@@ -0,0 +1,61 @@
+//**********************************************************************
+// cresendo - HandlerMetrics
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters kept by the EventHandlerChain for each position in the chain
+//
+class HandlerMetrics
+{
+  final int position;                           // Position in the chain (1 based)
+  final String className;                       // Event handler class name
+  final LongAdder in = new LongAdder();         // Events passed to the handler
+  final LongAdder out = new LongAdder();        // Events passed on to the next handler
+  final LongAdder dropped = new LongAdder();    // Events the handler did not pass on
+  final LongAdder error = new LongAdder();      // Batches abandoned because the handler threw an exception
+  LatencyHistogram latency = null;              // Time spent in the handler per event (null unless timed)
+  LatencyHistogram batchLatency = null;         // Time spent in the handler per batch (timed handlers with their own processBatch)
+
+  HandlerMetrics(int p, String c)
+  {
+    position = p;
+    className = c;
+  }
+
+  void reset()
+  {
+    in.reset();
+    out.reset();
+    dropped.reset();
+    error.reset();
+
+    if (latency != null)
+    {
+      latency.reset();
+    }
+
+    if (batchLatency != null)
+    {
+      batchLatency.reset();
+    }
+  }
+}
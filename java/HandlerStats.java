@@ -0,0 +1,132 @@
+//**********************************************************************
+// cresendo - HandlerStats
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+// Live view of one position in the handler chain published over JMX.
+// Latency percentiles are zero unless the engine latency attribute is on.
+// Handlers with their own processBatch are timed per batch (BatchLatency)
+// and the others per event (Latency).
+//
+public class HandlerStats implements HandlerStatsMBean
+{
+  private HandlerMetrics metrics = null;
+  private RateMeter inRate = new RateMeter();
+
+  HandlerStats(HandlerMetrics m)
+  {
+    metrics = m;
+  }
+
+  public String getClassName()
+  {
+    return metrics.className;
+  }
+
+  public int getPosition()
+  {
+    return metrics.position;
+  }
+
+  public long getIn()
+  {
+    return metrics.in.sum();
+  }
+
+  public double getInRate()
+  {
+    return inRate.rate(getIn());
+  }
+
+  public long getOut()
+  {
+    return metrics.out.sum();
+  }
+
+  public long getDropped()
+  {
+    return metrics.dropped.sum();
+  }
+
+  public long getErrors()
+  {
+    return metrics.error.sum();
+  }
+
+  public double getLatencyP50Micros()
+  {
+    return percentile(50.0);
+  }
+
+  public double getLatencyP90Micros()
+  {
+    return percentile(90.0);
+  }
+
+  public double getLatencyP99Micros()
+  {
+    return percentile(99.0);
+  }
+
+  public double getLatencyP999Micros()
+  {
+    return percentile(99.9);
+  }
+
+  public double getLatencyMaxMicros()
+  {
+    return (metrics.latency == null) ? 0.0 : metrics.latency.liveMax() / 1000.0;
+  }
+
+  private double percentile(double p)
+  {
+    return (metrics.latency == null) ? 0.0 : metrics.latency.livePercentile(p) / 1000.0;
+  }
+
+  public double getBatchLatencyP50Micros()
+  {
+    return batchPercentile(50.0);
+  }
+
+  public double getBatchLatencyP99Micros()
+  {
+    return batchPercentile(99.0);
+  }
+
+  public double getBatchLatencyP999Micros()
+  {
+    return batchPercentile(99.9);
+  }
+
+  public double getBatchLatencyMaxMicros()
+  {
+    return (metrics.batchLatency == null) ? 0.0 : metrics.batchLatency.liveMax() / 1000.0;
+  }
+
+  private double batchPercentile(double p)
+  {
+    return (metrics.batchLatency == null) ? 0.0 : metrics.batchLatency.livePercentile(p) / 1000.0;
+  }
+
+  public void resetCounters()
+  {
+    metrics.reset();
+  }
+}
@@ -0,0 +1,44 @@
+//**********************************************************************
+// cresendo - HandlerStatsMBean
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+// Management interface of one position in the handler chain (see HandlerStats)
+//
+public interface HandlerStatsMBean
+{
+  public String getClassName();
+  public int getPosition();
+  public long getIn();
+  public double getInRate();
+  public long getOut();
+  public long getDropped();
+  public long getErrors();
+  public double getLatencyP50Micros();
+  public double getLatencyP90Micros();
+  public double getLatencyP99Micros();
+  public double getLatencyP999Micros();
+  public double getLatencyMaxMicros();
+  public double getBatchLatencyP50Micros();
+  public double getBatchLatencyP99Micros();
+  public double getBatchLatencyP999Micros();
+  public double getBatchLatencyMaxMicros();
+  public void resetCounters();
+}
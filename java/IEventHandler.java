@@ -24,4 +24,32 @@ import com.tivoli.tec.event_delivery.TECEvent;
 interface IEventHandler
 {
   public boolean processEvent(TECEvent e);
+
+  // Process the first count events in the batch.  Events which should
+  // not be passed on to the next handler are removed from the batch and
+  // the remaining events moved up to fill the gap, keeping their order.
+  // Returns the number of events left in the batch.
+  //
+  // By default each event is handed to processEvent in turn.  Handlers
+  // which can share work between the events of a batch override this.
+  //
+  public default int processBatch(TECEvent[] batch, int count)
+  {
+    int kept = 0;
+
+    for (int i = 0; i < count; i++)
+    {
+      if (processEvent(batch[i]))
+      {
+        batch[kept++] = batch[i];
+      }
+    }
+
+    for (int i = kept; i < count; i++)
+    {
+      batch[i] = null;
+    }
+
+    return kept;
+  }
 }
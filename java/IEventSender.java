@@ -0,0 +1,32 @@
+//**********************************************************************
+// cresendo - IEventSender
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+// Where EventSend writes its events.  Normally this is a TECAgent in
+// sender mode built from the handler's config file, but the benchmarks
+// (see bench/) plug in a stub so that no network is needed.  Returns the
+// same as TECAgent.sendEvent: -1 on failure, 0 if the event was filtered
+// and the number of bytes sent otherwise.
+//
+interface IEventSender
+{
+  int sendEvent(String event);
+}
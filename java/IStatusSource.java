@@ -0,0 +1,33 @@
+//**********************************************************************
+// cresendo - IStatusSource
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.io.FileWriter;
+import java.io.IOException;
+
+// Implemented by anything with extra lines to add to the status file.
+// Sources are registered with StatusLogger.addSource() and called each
+// time the status file is rewritten.
+//
+interface IStatusSource
+{
+  public void logStatus(FileWriter sfw) throws IOException;
+}
@@ -0,0 +1,279 @@
+//**********************************************************************
+// cresendo - LatencyHistogram
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log linear histogram of latencies in nanoseconds, in the style of
+// HdrHistogram.  Values below 64ns have a bucket each, above that every
+// power of two is split into 32 buckets so any value is recorded to
+// within about 3%.  Recording is a single atomic add and never blocks.
+//
+// The buckets being recorded into are moved into an interval histogram
+// and added to a cumulative histogram by roll(), which StatusLogger calls
+// once per status interval.  Percentiles are reported from those two.
+// The exact number and sum of the values recorded are kept as well, for
+// the Prometheus summaries (see MetricsHttpServer).
+//
+class LatencyHistogram
+{
+  private static final int SUB_BITS = 5;                         // log2 of the buckets per power of two
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final long HIGHEST = (1L << 40) - 1;            // Largest value recorded (about 18 minutes)
+  static final int BUCKETS = index(HIGHEST) + 1;
+
+  private final AtomicLongArray count = new AtomicLongArray(BUCKETS);   // Current (unrolled) counts
+  private final AtomicLong max = new AtomicLong();
+  private final LongAdder values = new LongAdder();   // Values recorded since start up (or the last reset)
+  private final LongAdder sum = new LongAdder();      // Their sum in nanoseconds
+
+  private long[] interval = new long[BUCKETS];   // Counts for the last complete interval
+  private long intervalMax = 0;
+  private long[] total = new long[BUCKETS];      // Counts since start up (or the last reset)
+  private long totalMax = 0;
+
+  static int index(long v)
+  {
+    if (v < 2 * SUB_COUNT)
+    {
+      return (int) v;
+    }
+
+    int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+
+    return (shift << SUB_BITS) + (int) (v >>> shift);
+  }
+
+  // Largest value that falls in the given bucket
+  //
+  static long highest(int i)
+  {
+    if (i < 2 * SUB_COUNT)
+    {
+      return i;
+    }
+
+    int shift = (i >>> SUB_BITS) - 1;
+    long sub = i - (shift << SUB_BITS);
+
+    return ((sub + 1) << shift) - 1;
+  }
+
+  void record(long nanos)
+  {
+    record(nanos, 1);
+  }
+
+  // Record n values of the given latency
+  //
+  void record(long nanos, int n)
+  {
+    if (nanos < 0)
+    {
+      nanos = 0;
+    }
+    else if (nanos > HIGHEST)
+    {
+      nanos = HIGHEST;
+    }
+
+    count.addAndGet(index(nanos), n);
+    values.add(n);
+    sum.add(nanos * n);
+
+    long m = max.get();
+
+    while (nanos > m && ! max.compareAndSet(m, nanos))
+    {
+      m = max.get();
+    }
+  }
+
+  // Close the current interval
+  //
+  synchronized void roll()
+  {
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      long c = count.getAndSet(i, 0);
+
+      interval[i] = c;
+      total[i] += c;
+    }
+
+    intervalMax = max.getAndSet(0);
+    totalMax = Math.max(totalMax, intervalMax);
+  }
+
+  synchronized void reset()
+  {
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      count.set(i, 0);
+      interval[i] = 0;
+      total[i] = 0;
+    }
+
+    max.set(0);
+    intervalMax = 0;
+    totalMax = 0;
+    values.reset();
+    sum.reset();
+  }
+
+  synchronized long count(boolean cumulative)
+  {
+    long[] c = cumulative ? total : interval;
+    long n = 0;
+
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      n += c[i];
+    }
+
+    return n;
+  }
+
+  synchronized long max(boolean cumulative)
+  {
+    return cumulative ? totalMax : intervalMax;
+  }
+
+  // Mean latency (in nanoseconds), taking each value as the top of its
+  // bucket
+  //
+  synchronized long mean(boolean cumulative)
+  {
+    long[] c = cumulative ? total : interval;
+    long n = 0;
+    double sum = 0.0;
+
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      n += c[i];
+      sum += (double) c[i] * highest(i);
+    }
+
+    return (n == 0) ? 0 : (long) (sum / n);
+  }
+
+  // Latency (in nanoseconds) at or below which the given percentage of
+  // the recorded values fall
+  //
+  synchronized long percentile(boolean cumulative, double p)
+  {
+    long[] c = cumulative ? total : interval;
+    long n = count(cumulative);
+
+    if (n == 0)
+    {
+      return 0;
+    }
+
+    long want = Math.max(1, (long) Math.ceil(n * p / 100.0));
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      seen += c[i];
+
+      if (seen >= want)
+      {
+        return Math.min(highest(i), cumulative ? totalMax : intervalMax);
+      }
+    }
+
+    return cumulative ? totalMax : intervalMax;
+  }
+
+  // Latency at or below which the given percentage of all values recorded
+  // so far fall, including those in the interval not yet closed.  Used by
+  // the live views (JMX) which must not disturb the status intervals.
+  //
+  synchronized long livePercentile(double p)
+  {
+    long[] c = new long[BUCKETS];
+    long n = 0;
+
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      c[i] = total[i] + count.get(i);
+      n += c[i];
+    }
+
+    if (n == 0)
+    {
+      return 0;
+    }
+
+    long want = Math.max(1, (long) Math.ceil(n * p / 100.0));
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      seen += c[i];
+
+      if (seen >= want)
+      {
+        return Math.min(highest(i), liveMax());
+      }
+    }
+
+    return liveMax();
+  }
+
+  long liveMax()
+  {
+    return Math.max(totalMax, max.get());
+  }
+
+  // Number of values recorded so far and their sum (in nanoseconds),
+  // interval not yet closed included
+  //
+  long liveCount()
+  {
+    return values.sum();
+  }
+
+  long liveSum()
+  {
+    return sum.sum();
+  }
+
+  // One line summary in microseconds for the status file
+  //
+  synchronized String summary(boolean cumulative)
+  {
+    return "count '" + count(cumulative) +
+      "' p50 '" + micros(percentile(cumulative, 50.0)) +
+      "' p90 '" + micros(percentile(cumulative, 90.0)) +
+      "' p99 '" + micros(percentile(cumulative, 99.0)) +
+      "' p99.9 '" + micros(percentile(cumulative, 99.9)) +
+      "' max '" + micros(max(cumulative)) + "'";
+  }
+
+  private static String micros(long nanos)
+  {
+    return String.format("%.1f", nanos / 1000.0);
+  }
+}
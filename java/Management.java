@@ -0,0 +1,98 @@
+//**********************************************************************
+// cresendo - Management
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Vector;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Registers the engine, handler and sender MBeans with the platform MBean
+// server under the cresendo domain, eg
+//
+//   cresendo:instance=<name>,type=Engine
+//   cresendo:instance=<name>,type=Handler,position=2,class=EventRegex
+//   cresendo:instance=<name>,type=Sender,config=<file>,connection=0
+//
+// Failing to register only costs the live view so errors are reported and
+// otherwise ignored.
+//
+class Management
+{
+  private static EngineStats engine = null;
+  private static Vector<SenderStats> senders = new Vector<SenderStats>();
+
+  static void register(String properties, Object mbean)
+  {
+    try
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("cresendo:instance=" + ObjectName.quote(Cresendo.instanceName) + "," + properties);
+
+      if (server.isRegistered(name))
+      {
+        server.unregisterMBean(name);
+      }
+
+      server.registerMBean(mbean, name);
+    }
+    catch (Exception e)
+    {
+      System.err.println("Cresendo: unable to register MBean '" + properties + "': " + e.toString());
+    }
+  }
+
+  static void registerEngine(EventEngine ee)
+  {
+    engine = new EngineStats(ee);
+    register("type=Engine", engine);
+
+    Vector<HandlerMetrics> handlers = MetricsRegistry.handlers();
+
+    for (int i = 0; i < handlers.size(); i++)
+    {
+      HandlerMetrics m = handlers.elementAt(i);
+
+      register("type=Handler,position=" + m.position + ",class=" + ObjectName.quote(m.className),
+               new HandlerStats(m));
+    }
+  }
+
+  static void registerSender(String config, int connection, EventSender s)
+  {
+    SenderStats stats = new SenderStats(config, connection, s);
+
+    senders.addElement(stats);
+    register("type=Sender,config=" + ObjectName.quote(config) + ",connection=" + connection, stats);
+  }
+
+  // The same views are read by MetricsHttpServer
+  //
+  static EngineStats engine()
+  {
+    return engine;
+  }
+
+  static Vector<SenderStats> senders()
+  {
+    return new Vector<SenderStats>(senders);
+  }
+}
@@ -0,0 +1,319 @@
+//**********************************************************************
+// cresendo - MetricsHttpServer
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+// Optional HTTP listener serving
+//
+//   /metrics  engine, handler, sender and jvm metrics in the Prometheus
+//             text exposition format
+//   /ready    200 when the instance is keeping up and its destinations
+//             are reachable, otherwise 503 and the reasons
+//
+// Requests are handled on a single thread of their own.  Metrics are
+// read from the LongAdders and histograms the engine threads record into
+// (see MetricsRegistry) so a scrape never holds up an event.
+//
+class MetricsHttpServer
+{
+  private HttpServer server = null;
+
+  MetricsHttpServer(String address, int port) throws IOException
+  {
+    server = HttpServer.create(new InetSocketAddress(address, port), 0);
+
+    server.createContext("/metrics", new HttpHandler()
+    {
+      public void handle(HttpExchange ex) throws IOException
+      {
+        reply(ex, 200, "text/plain; version=0.0.4; charset=utf-8", metrics());
+      }
+    });
+
+    server.createContext("/ready", new HttpHandler()
+    {
+      public void handle(HttpExchange ex) throws IOException
+      {
+        String reasons = ready();
+
+        if (reasons == null)
+        {
+          reply(ex, 200, "text/plain; charset=utf-8", "ready\n");
+        }
+        else
+        {
+          reply(ex, 503, "text/plain; charset=utf-8", reasons);
+        }
+      }
+    });
+
+    ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "MetricsHttpServer");
+        t.setDaemon(true);      // Don't hold up the jvm at shutdown
+        return t;
+      }
+    });
+
+    server.setExecutor(executor);
+  }
+
+  void start()
+  {
+    server.start();
+  }
+
+  private static void reply(HttpExchange ex, int code, String type, String body) throws IOException
+  {
+    byte[] b = body.getBytes("UTF-8");
+
+    ex.getResponseHeaders().set("Content-Type", type);
+
+    if (ex.getRequestMethod().equals("HEAD"))
+    {
+      ex.sendResponseHeaders(code, -1);
+      ex.close();
+      return;
+    }
+
+    ex.sendResponseHeaders(code, b.length);
+
+    OutputStream os = ex.getResponseBody();
+    os.write(b);
+    os.close();
+  }
+
+  // Returns null when every health source is happy, otherwise one line
+  // per problem
+  //
+  static String ready()
+  {
+    StringBuilder sb = null;
+    Vector<IHealthSource> sources = MetricsRegistry.healthSources();
+
+    for (int i = 0; i < sources.size(); i++)
+    {
+      String reason = sources.elementAt(i).health();
+
+      if (reason != null)
+      {
+        if (sb == null)
+        {
+          sb = new StringBuilder();
+        }
+
+        sb.append(reason).append('\n');
+      }
+    }
+
+    return (sb == null) ? null : sb.toString();
+  }
+
+  static String metrics()
+  {
+    StringBuilder sb = new StringBuilder(8192);
+    String instance = "instance_name=\"" + escape(Cresendo.instanceName) + "\"";
+
+    // Counters registered by the engine and handlers
+    //
+    Vector<String> names = MetricsRegistry.names();
+
+    for (int i = 0; i < names.size(); i++)
+    {
+      String name = "cresendo_" + sanitise(names.elementAt(i)) + "_total";
+
+      type(sb, name, "counter");
+      sample(sb, name, instance, MetricsRegistry.value(names.elementAt(i)));
+    }
+
+    // Engine queues
+    //
+    EngineStats engine = Management.engine();
+
+    if (engine != null)
+    {
+      gauge(sb, "cresendo_engine_threads", instance, engine.getThreads());
+      gauge(sb, "cresendo_engine_queue_depth", instance, engine.getQueueDepth());
+      gauge(sb, "cresendo_engine_queue_capacity", instance, engine.getQueueCapacity());
+      type(sb, "cresendo_engine_queue_dropped_total", "counter");
+      sample(sb, "cresendo_engine_queue_dropped_total", instance, engine.getQueueDropped());
+      type(sb, "cresendo_engine_queue_spilled_total", "counter");
+      sample(sb, "cresendo_engine_queue_spilled_total", instance, engine.getQueueSpilled());
+      type(sb, "cresendo_engine_queue_blocked_seconds_total", "counter");
+      sample(sb, "cresendo_engine_queue_blocked_seconds_total", instance, engine.getQueueBlockedMillis() / 1000.0);
+    }
+
+    // Each position in the handler chain
+    //
+    Vector<HandlerMetrics> handlers = MetricsRegistry.handlers();
+
+    type(sb, "cresendo_handler_events_in_total", "counter");
+    type(sb, "cresendo_handler_events_out_total", "counter");
+    type(sb, "cresendo_handler_events_dropped_total", "counter");
+    type(sb, "cresendo_handler_errors_total", "counter");
+    type(sb, "cresendo_handler_latency_seconds", "summary");
+    type(sb, "cresendo_handler_batch_latency_seconds", "summary");
+
+    for (int i = 0; i < handlers.size(); i++)
+    {
+      HandlerMetrics m = handlers.elementAt(i);
+      String labels = instance + ",position=\"" + m.position + "\",class=\"" + escape(m.className) + "\"";
+
+      sample(sb, "cresendo_handler_events_in_total", labels, m.in.sum());
+      sample(sb, "cresendo_handler_events_out_total", labels, m.out.sum());
+      sample(sb, "cresendo_handler_events_dropped_total", labels, m.dropped.sum());
+      sample(sb, "cresendo_handler_errors_total", labels, m.error.sum());
+
+      if (m.latency != null)
+      {
+        quantiles(sb, "cresendo_handler_latency_seconds", labels, m.latency);
+      }
+
+      if (m.batchLatency != null)
+      {
+        quantiles(sb, "cresendo_handler_batch_latency_seconds", labels, m.batchLatency);
+      }
+    }
+
+    // Other latency histograms
+    //
+    Vector<String> latencyNames = MetricsRegistry.latencyNames();
+
+    for (int i = 0; i < latencyNames.size(); i++)
+    {
+      String name = "cresendo_" + sanitise(latencyNames.elementAt(i)) + "_latency_seconds";
+
+      type(sb, name, "summary");
+      quantiles(sb, name, instance, MetricsRegistry.getLatency(latencyNames.elementAt(i)));
+    }
+
+    // EventSend connections
+    //
+    Vector<SenderStats> senders = Management.senders();
+
+    type(sb, "cresendo_sender_sent_total", "counter");
+    type(sb, "cresendo_sender_queued", "gauge");
+    type(sb, "cresendo_sender_in_flight", "gauge");
+    type(sb, "cresendo_sender_latency_seconds", "summary");
+
+    for (int i = 0; i < senders.size(); i++)
+    {
+      SenderStats s = senders.elementAt(i);
+      String labels = instance + ",config=\"" + escape(s.config) + "\",connection=\"" + s.connection + "\"";
+
+      sample(sb, "cresendo_sender_sent_total", labels, s.getSent());
+      sample(sb, "cresendo_sender_queued", labels, s.getQueued());
+      sample(sb, "cresendo_sender_in_flight", labels, s.getInFlight());
+      quantiles(sb, "cresendo_sender_latency_seconds", labels, s.latency());
+    }
+
+    // The jvm
+    //
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+    gauge(sb, "jvm_memory_heap_used_bytes", instance, heap.getUsed());
+    gauge(sb, "jvm_memory_heap_committed_bytes", instance, heap.getCommitted());
+    gauge(sb, "jvm_memory_heap_max_bytes", instance, heap.getMax());
+    gauge(sb, "jvm_threads_current", instance, ManagementFactory.getThreadMXBean().getThreadCount());
+    gauge(sb, "jvm_uptime_seconds", instance, ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+
+    type(sb, "jvm_gc_collection_total", "counter");
+    type(sb, "jvm_gc_collection_seconds_total", "counter");
+
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+    {
+      String labels = instance + ",gc=\"" + escape(gc.getName()) + "\"";
+
+      sample(sb, "jvm_gc_collection_total", labels, gc.getCollectionCount());
+      sample(sb, "jvm_gc_collection_seconds_total", labels, gc.getCollectionTime() / 1000.0);
+    }
+
+    return sb.toString();
+  }
+
+  // A latency histogram as a Prometheus summary: quantiles of all the
+  // values recorded since start up, their sum and their number
+  //
+  private static void quantiles(StringBuilder sb, String name, String labels, LatencyHistogram h)
+  {
+    sample(sb, name, labels + ",quantile=\"0.5\"", h.livePercentile(50.0) / 1e9);
+    sample(sb, name, labels + ",quantile=\"0.9\"", h.livePercentile(90.0) / 1e9);
+    sample(sb, name, labels + ",quantile=\"0.99\"", h.livePercentile(99.0) / 1e9);
+    sample(sb, name, labels + ",quantile=\"0.999\"", h.livePercentile(99.9) / 1e9);
+    sample(sb, name, labels + ",quantile=\"1\"", h.liveMax() / 1e9);
+    sample(sb, name + "_sum", labels, h.liveSum() / 1e9);
+    sample(sb, name + "_count", labels, h.liveCount());
+  }
+
+  private static void gauge(StringBuilder sb, String name, String labels, long value)
+  {
+    type(sb, name, "gauge");
+    sample(sb, name, labels, value);
+  }
+
+  private static void gauge(StringBuilder sb, String name, String labels, double value)
+  {
+    type(sb, name, "gauge");
+    sample(sb, name, labels, value);
+  }
+
+  private static void type(StringBuilder sb, String name, String type)
+  {
+    sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder sb, String name, String labels, long value)
+  {
+    sb.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  private static void sample(StringBuilder sb, String name, String labels, double value)
+  {
+    sb.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  // Metric names may only contain letters, digits and underscores
+  //
+  private static String sanitise(String name)
+  {
+    return name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").replaceAll("[^A-Za-z0-9_]", "_").toLowerCase();
+  }
+
+  private static String escape(String value)
+  {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
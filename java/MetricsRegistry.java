@@ -0,0 +1,194 @@
+//**********************************************************************
+// cresendo - MetricsRegistry
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+// Registry of the event counters kept by the engine and its handlers.
+//
+// Counters are LongAdders, which spread concurrent increments over
+// several cells, so engine threads never contend on a single counter.
+// Readers such as StatusLogger add the cells up without stopping the
+// writers.  Each position in the handler chain automatically gets a set
+// of in/out/dropped/error counters (see HandlerMetrics), kept under the
+// name of the chain so that building a chain again (eg in a benchmark)
+// replaces the counters of the old one, and handlers register any
+// counters of their own by name.  Latency histograms are kept in the
+// same way.
+//
+class MetricsRegistry
+{
+  private static ConcurrentHashMap<String, LongAdder> counter = new ConcurrentHashMap<String, LongAdder>();
+  private static CopyOnWriteArrayList<String> names = new CopyOnWriteArrayList<String>();   // Registration order
+  private static ConcurrentHashMap<String, HandlerMetrics[]> handlers = new ConcurrentHashMap<String, HandlerMetrics[]>();
+  private static CopyOnWriteArrayList<String> chains = new CopyOnWriteArrayList<String>();   // Chain names in registration order
+  private static ConcurrentHashMap<String, LatencyHistogram> latency = new ConcurrentHashMap<String, LatencyHistogram>();
+  private static CopyOnWriteArrayList<String> latencyNames = new CopyOnWriteArrayList<String>();
+  private static CopyOnWriteArrayList<IHealthSource> health = new CopyOnWriteArrayList<IHealthSource>();
+
+  // Get the named counter, creating it the first time it is asked for
+  //
+  static LongAdder counter(String name)
+  {
+    LongAdder c = counter.get(name);
+
+    if (c == null)
+    {
+      LongAdder created = new LongAdder();
+      c = counter.putIfAbsent(name, created);
+
+      if (c == null)
+      {
+        c = created;
+        names.add(name);
+      }
+    }
+
+    return c;
+  }
+
+  // Current value of the named counter (0 if there is no such counter)
+  //
+  static long value(String name)
+  {
+    LongAdder c = counter.get(name);
+    return (c == null) ? 0 : c.sum();
+  }
+
+  static Vector<String> names()
+  {
+    return new Vector<String>(names);
+  }
+
+  // Get the named latency histogram, creating it the first time it is
+  // asked for
+  //
+  static LatencyHistogram latency(String name)
+  {
+    LatencyHistogram h = latency.get(name);
+
+    if (h == null)
+    {
+      LatencyHistogram created = new LatencyHistogram();
+      h = latency.putIfAbsent(name, created);
+
+      if (h == null)
+      {
+        h = created;
+        latencyNames.add(name);
+      }
+    }
+
+    return h;
+  }
+
+  static LatencyHistogram getLatency(String name)
+  {
+    return latency.get(name);
+  }
+
+  static Vector<String> latencyNames()
+  {
+    return new Vector<String>(latencyNames);
+  }
+
+  // Counters for each handler of the named chain, in chain order.  They
+  // replace those of any earlier chain of the same name.
+  //
+  static HandlerMetrics[] handlers(String chain, IEventHandler[] h)
+  {
+    HandlerMetrics[] m = new HandlerMetrics[h.length];
+
+    for (int i = 0; i < h.length; i++)
+    {
+      m[i] = new HandlerMetrics(i + 1, h[i].getClass().getName());
+    }
+
+    handlers.put(chain, m);
+    chains.addIfAbsent(chain);
+
+    return m;
+  }
+
+  // Forget the counters of the named chain, unless a later chain of the
+  // same name has replaced them already
+  //
+  static void removeHandlers(String chain, HandlerMetrics[] m)
+  {
+    if (handlers.remove(chain, m))
+    {
+      chains.remove(chain);
+    }
+  }
+
+  // Counters for every position of every chain
+  //
+  static Vector<HandlerMetrics> handlers()
+  {
+    Vector<HandlerMetrics> all = new Vector<HandlerMetrics>();
+
+    for (String chain : chains)
+    {
+      HandlerMetrics[] m = handlers.get(chain);
+
+      for (int i = 0; m != null && i < m.length; i++)
+      {
+        all.add(m[i]);
+      }
+    }
+
+    return all;
+  }
+
+  static void addHealth(IHealthSource h)
+  {
+    health.add(h);
+  }
+
+  static Vector<IHealthSource> healthSources()
+  {
+    return new Vector<IHealthSource>(health);
+  }
+
+  static void reset()
+  {
+    for (LongAdder c : counter.values())
+    {
+      c.reset();
+    }
+
+    for (HandlerMetrics[] m : handlers.values())
+    {
+      for (int i = 0; i < m.length; i++)
+      {
+        m[i].reset();
+      }
+    }
+
+    for (LatencyHistogram h : latency.values())
+    {
+      h.reset();
+    }
+  }
+}
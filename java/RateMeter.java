@@ -0,0 +1,47 @@
+//**********************************************************************
+// cresendo - RateMeter
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+// Rate of change of a counter in events per second.  The rate is worked
+// out between successive readings at least a second apart so that a
+// monitor polling quickly sees a steady figure.
+//
+class RateMeter
+{
+  private long lastTime = System.nanoTime();   // When the counter was last sampled
+  private long lastValue = 0;                  // Counter value when it was last sampled
+  private double rate = 0.0;                   // Rate between the last two samples
+
+  synchronized double rate(long value)
+  {
+    long now = System.nanoTime();
+    long elapsed = now - lastTime;
+
+    if (elapsed >= 1000000000L)
+    {
+      rate = Math.max(0, value - lastValue) * 1000000000.0 / elapsed;
+      lastTime = now;
+      lastValue = value;
+    }
+
+    return rate;
+  }
+}
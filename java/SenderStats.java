@@ -0,0 +1,91 @@
+//**********************************************************************
+// cresendo - SenderStats
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+// Live view of one asynchronous EventSend connection published over JMX
+//
+public class SenderStats implements SenderStatsMBean
+{
+  private EventSender sender = null;
+  private RateMeter sentRate = new RateMeter();
+  final String config;        // EventSend config file name
+  final int connection;       // Connection number within the EventSend pool
+
+  SenderStats(String c, int n, EventSender s)
+  {
+    config = c;
+    connection = n;
+    sender = s;
+  }
+
+  // Send latency for the metrics listener (see MetricsHttpServer)
+  //
+  LatencyHistogram latency()
+  {
+    return sender.latency;
+  }
+
+  public long getSent()
+  {
+    return sender.sent.get();
+  }
+
+  public double getSentRate()
+  {
+    return sentRate.rate(getSent());
+  }
+
+  public int getQueued()
+  {
+    return sender.queued();
+  }
+
+  public int getInFlight()
+  {
+    return sender.inFlight();
+  }
+
+  public double getLatencyP50Micros()
+  {
+    return sender.latency.livePercentile(50.0) / 1000.0;
+  }
+
+  public double getLatencyP99Micros()
+  {
+    return sender.latency.livePercentile(99.0) / 1000.0;
+  }
+
+  public double getLatencyP999Micros()
+  {
+    return sender.latency.livePercentile(99.9) / 1000.0;
+  }
+
+  public double getLatencyMaxMicros()
+  {
+    return sender.latency.liveMax() / 1000.0;
+  }
+
+  public void resetCounters()
+  {
+    sender.sent.set(0);
+    sender.latency.reset();
+  }
+}
@@ -0,0 +1,36 @@
+//**********************************************************************
+// cresendo - SenderStatsMBean
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+// Management interface of one EventSend connection (see SenderStats)
+//
+public interface SenderStatsMBean
+{
+  public long getSent();
+  public double getSentRate();
+  public int getQueued();
+  public int getInFlight();
+  public double getLatencyP50Micros();
+  public double getLatencyP99Micros();
+  public double getLatencyP999Micros();
+  public double getLatencyMaxMicros();
+  public void resetCounters();
+}
@@ -19,23 +19,51 @@
 //  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
 //***********************************************************************
 
-import com.ibm.logging.MessageLogger;
+import java.util.Vector;
 import com.ibm.logging.LogRecord;
 
 class ShutdownThread extends Thread
 {
-  private MessageLogger logger;
+  private EngineLogger logger;
+  private EngineLogger tracer;
   private LogRecord record;
   private String instanceName;
+  private volatile EventEngine engine = null;   // Set once the engine is running
 
-  ShutdownThread(MessageLogger log, String instance) {
+  static final long ENGINE_WAIT = 10000;        // Most time given to the engine to finish off (milliseconds)
+
+  ShutdownThread(EngineLogger log, EngineLogger trc, String instance) {
     this.logger = log;
+    this.tracer = trc;
     this.instanceName = instance;
-    this.record = new LogRecord(LogRecord.TYPE_INFO, "Cresendo", "Shutdown", "", "", "", "", "");
+    this.record = new EngineLogRecord(LogRecord.TYPE_INFO, "Cresendo", "Shutdown");
   }
   
+  void setEngine(EventEngine ee)
+  {
+    engine = ee;
+  }
+
   public void run()
   {
+    // Stop taking events and let the engine finish off the events it
+    // already has before anything is closed.  The worker and sender
+    // threads are daemon threads so they would otherwise be lost.
+    //
+    Vector<String> notes = new Vector<String>();
+
+    if (engine != null)
+    {
+      try
+      {
+        notes = engine.shutdown(System.currentTimeMillis() + ENGINE_WAIT);
+      }
+      catch (Exception ex)
+      {
+        notes.add("An error occurred while stopping the engine '" + ex.toString() + "'");
+      }
+    }
+
     // Flush out the status log
     //
     if (Cresendo.statLogger.isLogging())
@@ -55,7 +83,17 @@ class ShutdownThread extends Thread
     //
     String tmpMsg = this.record.getText();
     tmpMsg = tmpMsg + "Shutdown instance '" + instanceName + "'";
+    for (int i = 0; i < notes.size(); i++)
+    {
+      tmpMsg = tmpMsg + "\n  " + notes.elementAt(i);
+    }
     this.record.setText(tmpMsg);
     this.logger.log(this.record);
+
+    // The log writers are daemon threads so wait for them to write out
+    // anything still queued
+    //
+    this.tracer.close();
+    this.logger.close();
   }
 }
@@ -0,0 +1,259 @@
+//**********************************************************************
+// cresendo - SlotValue
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// Helpers for normalising attribute values in the same way as the
+// directory lookup handlers do when they build their file names.
+//
+// These are called for every event so they scan the value rather than
+// use regular expressions, and hand back the value itself when there is
+// nothing to change.  Only values which do change allocate a new string.
+//
+class SlotValue
+{
+  // There are far fewer host and situation names than events so the
+  // normalised value of each raw slot value is remembered.  A full cache
+  // is emptied rather than left as is, so names which turn up later (new
+  // hosts, renamed situations) get a place in it too.
+  //
+  static final int MAX_CACHED = 8192;            // Most raw values remembered per cache
+  private static final String NONE = new String("");   // Cached for values with no usable name
+
+  private static final ConcurrentHashMap<String, String> hosts = new ConcurrentHashMap<String, String>();
+  private static final ConcurrentHashMap<String, String> situations = new ConcurrentHashMap<String, String>();
+
+  private static boolean isQuote(char c)
+  {
+    return c == '\'' || c == '"';
+  }
+
+  // White space as matched by \s in a regular expression
+  //
+  private static boolean isSpace(char c)
+  {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  // Is the value empty or white space only (ie matches "^\\s*$")
+  //
+  static boolean isBlank(String value)
+  {
+    for (int i = 0; i < value.length(); i++)
+    {
+      if (! isSpace(value.charAt(i)))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Is the value empty once trimmed (ie trim().length() == 0)
+  //
+  static boolean trimsToNothing(String value)
+  {
+    for (int i = 0; i < value.length(); i++)
+    {
+      if (value.charAt(i) > ' ')
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Remove every single and double quote (ie replaceAll("['\"]", "")).
+  // Quotes at either end only, the usual case, need just a substring.
+  //
+  static String stripQuotes(String value)
+  {
+    int start = 0;
+    int end = value.length();
+
+    while (start < end && isQuote(value.charAt(start)))
+    {
+      start++;
+    }
+
+    while (end > start && isQuote(value.charAt(end - 1)))
+    {
+      end--;
+    }
+
+    for (int i = start; i < end; i++)
+    {
+      if (isQuote(value.charAt(i)))
+      {
+        StringBuilder sb = new StringBuilder(end - start);
+
+        for (int j = start; j < end; j++)
+        {
+          if (! isQuote(value.charAt(j)))
+          {
+            sb.append(value.charAt(j));
+          }
+        }
+
+        return sb.toString();
+      }
+    }
+
+    return (start == 0 && end == value.length()) ? value : value.substring(start, end);
+  }
+
+  // Strip any single or double quotes.  Returns null if nothing but
+  // white space is left.
+  //
+  static String unquote(String value)
+  {
+    if (value == null || value.length() == 0)
+    {
+      return null;
+    }
+
+    value = stripQuotes(value);
+
+    if (isBlank(value))
+    {
+      return null;
+    }
+
+    return value;
+  }
+
+  // Turn the value of a hostname attribute into a lower case short host
+  // name (ie quotes and domain name removed).  Returns null if there is
+  // no usable host name.
+  //
+  // Host names are usually quoted at either end only, so the short name
+  // is found by index and taken with a single substring (none at all if
+  // the value is already a bare lower case short name).
+  //
+  static String shortHostName(String fqhost)
+  {
+    if (fqhost == null || fqhost.length() == 0)
+    {
+      return null;
+    }
+
+    int start = 0;
+    int end = fqhost.length();
+    int idot = -1;
+
+    while (start < end && isQuote(fqhost.charAt(start)))
+    {
+      start++;
+    }
+
+    while (end > start && isQuote(fqhost.charAt(end - 1)))
+    {
+      end--;
+    }
+
+    boolean blank = true;
+
+    for (int i = start; i < end; i++)
+    {
+      char c = fqhost.charAt(i);
+
+      if (isQuote(c))
+      {
+        return shortHostName(stripQuotes(fqhost));    // Quotes inside the name, strip them first
+      }
+
+      if (idot < 0 && c == '.')
+      {
+        idot = i;
+      }
+
+      blank = blank && isSpace(c);
+    }
+
+    if (blank)
+    {
+      return null;
+    }
+
+    if (idot >= 0)
+    {
+      end = idot;                            // Strip domain name
+    }
+
+    if (start > 0 || end < fqhost.length())
+    {
+      fqhost = fqhost.substring(start, end);
+    }
+
+    return fqhost.toLowerCase();             // Returns fqhost itself if already lower case
+  }
+
+  // shortHostName, remembered for each raw hostname value
+  //
+  static String host(String raw)
+  {
+    if (raw == null)
+    {
+      return null;
+    }
+
+    String host = hosts.get(raw);
+
+    if (host == null)
+    {
+      host = shortHostName(raw);
+      remember(hosts, raw, host);
+    }
+
+    return (host == NONE) ? null : host;
+  }
+
+  // unquote, remembered for each raw situation_name value
+  //
+  static String situation(String raw)
+  {
+    if (raw == null)
+    {
+      return null;
+    }
+
+    String sit = situations.get(raw);
+
+    if (sit == null)
+    {
+      sit = unquote(raw);
+      remember(situations, raw, sit);
+    }
+
+    return (sit == NONE) ? null : sit;
+  }
+
+  private static void remember(ConcurrentHashMap<String, String> cache, String raw, String value)
+  {
+    if (cache.size() >= MAX_CACHED)
+    {
+      cache.clear();
+    }
+
+    cache.put(raw, (value == null) ? NONE : value);
+  }
+}
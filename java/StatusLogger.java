@@ -21,7 +21,9 @@
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Vector;
 import java.text.SimpleDateFormat;
 
 public class StatusLogger
@@ -30,14 +32,21 @@ public class StatusLogger
   private boolean doLog = true;          // To log or not to log that is the question
   private Date startDate;                // Date and time the object was instantiated
   private String statusFile = null;      // Path to status file log
-  public static long receivedCount = 0;  // Total number of events successfully received
-  public static long sentFailed = 0;     // Number of events where sent failed (see EventSend)
-  public static long sentFiltered = 0;   // Number of events filtered out (see EventSend)
-  public static long sentSuccess = 0;    // Number of events successfully sent (see EventSend)
-  public static long dropByHostName = 0;     // Number of events dropped based on hostname
-  public static long mapSevByHostName = 0;   // Number of events where severity has been remapped based on host name
-  public static long mapSevByHostAndSitName = 0;   // Number of events where severity has been remapped based on situation and host name
-  public static long mapSevBySitName = 0;    // Number of events where severity has been remapped based on situation name
+
+  private static Vector<IStatusSource> sources = new Vector<IStatusSource>();   // Extra status sources
+
+  // Counters which have their own line at the top of the status file
+  //
+  private static final Vector<String> fixed = new Vector<String>(Arrays.asList(
+                                                EventEngine.RECEIVED,
+                                                EventSend.FAILED,
+                                                EventSend.FILTERED,
+                                                EventSend.SUCCESS,
+                                                EventDropByHostName.DROPPED,
+                                                EventMapSevByHostName.MAPPED,
+                                                EventMapSevBySitName.MAPPED,
+                                                EventMapSevByHostAndSitName.MAPPED
+                                              ));
 
   public StatusLogger(String sfl) 
   {
@@ -45,6 +54,11 @@ public class StatusLogger
     statusFile = sfl;
   }
 
+  public static void addSource(IStatusSource s)
+  {
+    sources.addElement(s);
+  }
+
   public void setInterval(int i)
   {
     logInterval = i;
@@ -65,6 +79,17 @@ public class StatusLogger
     return doLog;
   }
 
+  // Close the histogram's interval and write the interval and cumulative
+  // percentiles (in microseconds)
+  //
+  private void writeLatency(FileWriter sfw, LatencyHistogram h) throws IOException
+  {
+    h.roll();
+
+    sfw.write("\n    interval (us): " + h.summary(false));
+    sfw.write("\n       total (us): " + h.summary(true));
+  }
+
   public void log() throws IOException, NullPointerException, IllegalArgumentException
   {
     Date nowDate = new Date();
@@ -87,14 +112,70 @@ public class StatusLogger
     sfw.write("\n             Start date: '" + sdf.format(startDate) + "'");
     sfw.write("\n           Current date: '" + sdf.format(nowDate) + "'");
     sfw.write("\n            Running for: '" + upDays + "' Days '" + upHours + "' Hours and '" + upMins + "' Minutes");
-    sfw.write("\n        Events received: '" + receivedCount + "'");
-    sfw.write("\n            Sent Failed: '" + sentFailed + "'");
-    sfw.write("\n          Sent Filtered: '" + sentFiltered + "'");
-    sfw.write("\n           Sent Success: '" + sentSuccess + "'");
-    sfw.write("\n         DropByHostName: '" + dropByHostName + "'");
-    sfw.write("\n       MapSevByHostName: '" + mapSevByHostName + "'");
-    sfw.write("\n        MapSevBySitName: '" + mapSevBySitName + "'");
-    sfw.write("\n MapSevByHostAndSitName: '" + mapSevByHostAndSitName + "'");
+    sfw.write("\n        Events received: '" + MetricsRegistry.value(EventEngine.RECEIVED) + "'");
+    sfw.write("\n            Sent Failed: '" + MetricsRegistry.value(EventSend.FAILED) + "'");
+    sfw.write("\n          Sent Filtered: '" + MetricsRegistry.value(EventSend.FILTERED) + "'");
+    sfw.write("\n           Sent Success: '" + MetricsRegistry.value(EventSend.SUCCESS) + "'");
+    sfw.write("\n         DropByHostName: '" + MetricsRegistry.value(EventDropByHostName.DROPPED) + "'");
+    sfw.write("\n       MapSevByHostName: '" + MetricsRegistry.value(EventMapSevByHostName.MAPPED) + "'");
+    sfw.write("\n        MapSevBySitName: '" + MetricsRegistry.value(EventMapSevBySitName.MAPPED) + "'");
+    sfw.write("\n MapSevByHostAndSitName: '" + MetricsRegistry.value(EventMapSevByHostAndSitName.MAPPED) + "'");
+
+    // Any other counters registered by event handlers
+    //
+    Vector<String> names = MetricsRegistry.names();
+
+    for (int i = 0; i < names.size(); i++)
+    {
+      String name = names.elementAt(i);
+
+      if (! fixed.contains(name))
+      {
+        sfw.write("\n  " + name + ": '" + MetricsRegistry.value(name) + "'");
+      }
+    }
+
+    // Counters for each position in the handler chain
+    //
+    Vector<HandlerMetrics> handlers = MetricsRegistry.handlers();
+
+    for (int i = 0; i < handlers.size(); i++)
+    {
+      HandlerMetrics m = handlers.elementAt(i);
+
+      sfw.write("\n  Handler " + m.position + " " + m.className + ": in '" + m.in.sum() +
+                "' out '" + m.out.sum() + "' dropped '" + m.dropped.sum() + "' errors '" + m.error.sum() + "'");
+
+      if (m.latency != null)
+      {
+        sfw.write("\n    per event:");
+        writeLatency(sfw, m.latency);
+      }
+
+      if (m.batchLatency != null)
+      {
+        sfw.write("\n    per batch:");
+        writeLatency(sfw, m.batchLatency);
+      }
+    }
+
+    // Other latency histograms (the whole chain for example)
+    //
+    Vector<String> latencyNames = MetricsRegistry.latencyNames();
+
+    for (int i = 0; i < latencyNames.size(); i++)
+    {
+      String name = latencyNames.elementAt(i);
+
+      sfw.write("\n  Latency " + name + ":");
+      writeLatency(sfw, MetricsRegistry.getLatency(name));
+    }
+
+    for (int i = 0; i < sources.size(); i++)
+    {
+      sources.elementAt(i).logStatus(sfw);
+    }
+
     sfw.write("\n\n");
 
     sfw.flush();
@@ -0,0 +1,43 @@
+//**********************************************************************
+// cresendo - ThreadLocalRecord
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+import com.ibm.logging.LogRecord;
+
+// Hands out one message or trace record per thread.  Event handlers are
+// shared by all of the engine worker threads so the records which they
+// reset and append to for each event can not be shared as well.
+//
+class ThreadLocalRecord extends ThreadLocal<LogRecord>
+{
+  private long type;            // Record type (ie LogRecord.TYPE_WARN)
+  private String className;     // Name of the event handler class
+
+  ThreadLocalRecord(long t, String c)
+  {
+    type = t;
+    className = c;
+  }
+
+  protected LogRecord initialValue()
+  {
+    return new EngineLogRecord(type, className, "processEvent");
+  }
+}
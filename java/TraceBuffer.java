@@ -0,0 +1,163 @@
+//**********************************************************************
+// cresendo - TraceBuffer
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import com.ibm.logging.LogRecord;
+import com.tivoli.tec.event_delivery.TECEvent;
+
+// Trace record for one event passing through one event handler.
+//
+// Each engine thread has a single TraceBuffer which is reused for every
+// record it writes, so building a trace record appends to one growing
+// StringBuilder instead of copying the text built so far at every step
+// (String tmpText = trc.getText(); trc.setText(tmpText + ...)).  The
+// event is only turned into a string when it is first traced and again
+// after the handler says it has changed it.
+//
+// begin() returns null when tracing is off, or when a TraceSampler is in
+// use and the engine didn't choose the event, so handlers test the record
+// for null and nothing at all is allocated for an untraced event:
+//
+//   TraceBuffer trc = TraceBuffer.begin("EventSetAttr", ev);
+//   ...
+//   if (trc != null)
+//   {
+//     trc.append("\n  Intend to set attribute '").append(setAttr).append("'\n");
+//   }
+//
+final class TraceBuffer
+{
+  private static final ThreadLocal<TraceBuffer> local = new ThreadLocal<TraceBuffer>()
+  {
+    protected TraceBuffer initialValue()
+    {
+      return new TraceBuffer();
+    }
+  };
+
+  private final StringBuilder text = new StringBuilder(4096);
+  private String className = null;      // Event handler writing the record
+  private TECEvent event = null;         // Event being traced
+  private String eventText = null;       // Event as a string (null until it is first traced)
+
+  private TraceBuffer()
+  {
+  }
+
+  // Start a trace record for an event.  Returns null when the event isn't
+  // being traced.
+  //
+  static TraceBuffer begin(String c, TECEvent e)
+  {
+    if (! Cresendo.trcLogger.isLogging)
+    {
+      return null;
+    }
+
+    if (TraceSampler.active != null && ! EventContext.current().isTraced(e))
+    {
+      return null;
+    }
+
+    TraceBuffer t = local.get();
+
+    t.className = c;
+    t.event = e;
+    t.eventText = null;
+    t.text.setLength(0);
+
+    return t;
+  }
+
+  // Is any event of the batch being dispatched on this thread traced.
+  // Handlers with their own processBatch fall back to processing events
+  // one at a time, with trace, when it is.
+  //
+  static boolean active()
+  {
+    if (! Cresendo.trcLogger.isLogging)
+    {
+      return false;
+    }
+
+    return TraceSampler.active == null || EventContext.current().anyTraced();
+  }
+
+  TraceBuffer append(String s)
+  {
+    text.append(s);
+    return this;
+  }
+
+  TraceBuffer append(int i)
+  {
+    text.append(i);
+    return this;
+  }
+
+  TraceBuffer append(long l)
+  {
+    text.append(l);
+    return this;
+  }
+
+  TraceBuffer append(boolean b)
+  {
+    text.append(b);
+    return this;
+  }
+
+  TraceBuffer append(char c)
+  {
+    text.append(c);
+    return this;
+  }
+
+  // Append the event, serialising it only if it hasn't been already or
+  // has since been changed
+  //
+  TraceBuffer event()
+  {
+    if (eventText == null)
+    {
+      eventText = event.toString();
+    }
+
+    text.append(eventText);
+    return this;
+  }
+
+  // The handler has changed the event so the next event() has to
+  // serialise it again
+  //
+  TraceBuffer changed()
+  {
+    eventText = null;
+    return this;
+  }
+
+  // Hand the record to the trace log writer
+  //
+  void log()
+  {
+    Cresendo.trcLogger.log(LogRecord.TYPE_ENTRY, className, "processEvent", text);
+  }
+}
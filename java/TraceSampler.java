@@ -0,0 +1,113 @@
+//**********************************************************************
+// cresendo - TraceSampler
+//
+//  Copyright (C) 2008,2009 Mark Matthews
+//  Distributed under the terms of the GNU General Public License
+//
+//  This file is part of Cresendo.
+//  Cresendo is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//  
+//  Cresendo is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//  
+//  You should have received a copy of the GNU General Public License
+//  along with Cresendo.  If not, see <http://www.gnu.org/licenses/>.
+//***********************************************************************
+
+
+import java.util.HashSet;
+import com.tivoli.tec.event_delivery.TECEvent;
+
+// Chooses which events are traced when tracing everything would be too
+// much.  An event is traced when any of the configured tests pass:
+//
+//   every      one event in every N (counted per engine thread)
+//   hosts      its short host name is one of these
+//   situations its situation_name is one of these
+//   severity   its severity is at least this
+//
+// The engine asks once per event, before the batch is dispatched, and
+// records the answer in the thread's EventContext (see TraceBuffer.begin).
+//
+final class TraceSampler
+{
+  static volatile TraceSampler active = null;    // Sampler in use (null means trace every event)
+
+  private int every = 0;                         // Trace one in this many events (0 means don't sample)
+  private HashSet<String> hosts = null;          // Short host names to trace
+  private HashSet<String> situations = null;     // Situation names to trace
+  private int severity = -1;                     // Lowest severity rank to trace (-1 means any)
+
+  void setEvery(int n)
+  {
+    every = n;
+  }
+
+  void setHosts(String list)
+  {
+    hosts = new HashSet<String>();
+
+    for (String h : list.split(","))
+    {
+      String host = SlotValue.shortHostName(h.trim());
+
+      if (host != null)
+      {
+        hosts.add(host);
+      }
+    }
+  }
+
+  void setSituations(String list)
+  {
+    situations = new HashSet<String>();
+
+    for (String s : list.split(","))
+    {
+      String sit = SlotValue.unquote(s.trim());
+
+      if (sit != null)
+      {
+        situations.add(sit);
+      }
+    }
+  }
+
+  // Returns false if the name isn't a TEC severity
+  //
+  boolean setSeverity(String name)
+  {
+    severity = EventRingBuffer.severityRank(name);
+    return severity >= 0;
+  }
+
+  boolean select(TECEvent e, EventContext ctx)
+  {
+    if (every > 0 && ++ctx.seen % every == 0)
+    {
+      return true;
+    }
+
+    if (hosts != null && hosts.contains(ctx.host(e)))
+    {
+      return true;
+    }
+
+    if (situations != null && situations.contains(ctx.situation(e)))
+    {
+      return true;
+    }
+
+    if (severity >= 0 && EventRingBuffer.severityRank(e) >= severity)
+    {
+      return true;
+    }
+
+    return false;
+  }
+}